@@ -58,6 +58,18 @@ public class DateTools {
 		return cal.getTime();
 	}
 
+	/**
+	 * @param interval days, hours, minutes
+	 */
+	public static Date addInterval(Date d, int[] interval) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(d);
+		cal.set(Calendar.DAY_OF_MONTH, cal.get(Calendar.DAY_OF_MONTH) + interval[0]);
+		cal.set(Calendar.HOUR_OF_DAY, cal.get(Calendar.HOUR_OF_DAY) + interval[1]);
+		cal.set(Calendar.MINUTE, cal.get(Calendar.MINUTE) + interval[2]);
+		return cal.getTime();
+	}
+
 	public static boolean isFirstAfterSecond(Date d1, Date d2) {
 		if (d1 == null) {
 			return false;
@@ -0,0 +1,20 @@
+package com.foobarsite.rss.common;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+public class HashTools {
+	/** Fast non-cryptographic hash, only for detecting changed content */
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	public static String hash(byte[] bytes) {
+		return bytes == null ? null : HASH_FUNCTION.hashBytes(bytes).toString();
+	}
+
+	public static String hash(String str) {
+		return str == null ? null : HASH_FUNCTION.hashString(str, StandardCharsets.UTF_8).toString();
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.foobarsite.rss.common;
 
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 
@@ -80,4 +81,45 @@ public class UrlTools {
 		return url.replaceFirst(PROTOCOL_REGEXP, "");
 	}
 
+	/**
+	 * Link without protocol and trailing slash, values that aren't valid urls are only trimmed.
+	 * Links are case sensitive so the case is kept.
+	 */
+	public static String normalizeLink(String link) {
+		if (StringTools.isBlankOrNull(link)) {
+			return link;
+		}
+		String trimmed = link.trim();
+		return isValidUrl(trimmed) ? stripProtocol(trimUrl(trimmed)) : trimmed;
+	}
+
+	/**
+	 * Url with lower case protocol and host and without default port, fragment and trailing slash.
+	 * Values that aren't valid urls are only trimmed.
+	 */
+	public static String canonicalUrl(String url) {
+		String trimmed = url == null ? null : url.trim();
+		if (!isValidUrl(trimmed)) {
+			return trimUrl(url);
+		}
+		try {
+			URL u = new URI(trimmed).toURL();
+			StringBuilder builder = new StringBuilder();
+			builder.append(u.getProtocol().toLowerCase());
+			builder.append("://");
+			builder.append(u.getHost().toLowerCase());
+			if (u.getPort() > 0 && u.getPort() != u.getDefaultPort()) {
+				builder.append(":").append(u.getPort());
+			}
+			String path = u.getPath();
+			builder.append(path.endsWith("/") ? path.substring(0, path.length() - 1) : path);
+			if (u.getQuery() != null) {
+				builder.append("?").append(u.getQuery());
+			}
+			return builder.toString();
+		} catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
+			return trimmed;
+		}
+	}
+
 }
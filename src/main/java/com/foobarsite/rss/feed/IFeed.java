@@ -1,6 +1,7 @@
 package com.foobarsite.rss.feed;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 public interface IFeed extends IEntity, Comparable<IFeed> {
@@ -35,4 +36,18 @@ public interface IFeed extends IEntity, Comparable<IFeed> {
 	void setLastFailResponseCode(String lastFailResponseCode);
 	Date getUpdated();
 	void setUpdated(Date updated);
+	String getETag();
+	void setETag(String eTag);
+	String getLastModified();
+	void setLastModified(String lastModified);
+	String getBodyHash();
+	void setBodyHash(String bodyHash);
+	Date getWatermark();
+	void setWatermark(Date watermark);
+	int getItemCount();
+	void setItemCount(int itemCount);
+	List<String> getRecentFingerprints();
+	void setRecentFingerprints(List<String> recentFingerprints);
+	boolean isNotModified();
+	void setNotModified(boolean notModified);
 }
@@ -13,6 +13,8 @@ public interface IFeedItem extends IEntity, Comparable<IFeedItem> {
 	Date getCreatedDate();
 	Date getUpdatedDate();
 	String getUri();
+	String getFingerprint();
+	void setFingerprint(String fingerprint);
 	boolean isRead();
 	void setRead(boolean read);
 	boolean isLiked();
@@ -6,13 +6,16 @@ public enum FeedItemProperty implements ITable {
 	GEN_ID("id"),
 	FEED_ID("feed_id"),
 	LINK("link"),
+	FEED_LINK("feed_link"),
+	FEED_URI("feed_uri"),
 	URI("uri"),
 	TITLE("title"),
 	CONTENT("content"),
 	AUTHOR("author"),
 	PUBLISHED("published"),
 	CREATED("created"),
-	UPDATED("updated");
+	UPDATED("updated"),
+	FINGERPRINT("fingerprint");
 
 	private final String property;
 	private FeedItemProperty(String property) {
@@ -17,6 +17,14 @@ public enum FeedProperty implements ITable {
 	LAST_FAIL_MSG("lastfailmsg"),
 	LAST_FAIL_RESPONSE("lastfailresp"),
 	LAST_OK_FETCH("lastokfetch"),
+	NEXT_FETCH("nextfetch"),
+	ETAG("etag"),
+	LAST_MODIFIED("lastmodified"),
+	BODY_HASH("bodyhash"),
+	WATERMARK("watermark"),
+	ITEM_COUNT("itemcount"),
+	RECENT_FINGERPRINTS("recentfingerprints"),
+	ITEM_KEYS("itemkeys"),
 	CREATED("created"),
 	UPDATED("updated");
 
@@ -0,0 +1,31 @@
+package com.foobarsite.rss.feed.desc;
+
+
+public enum StatsProperty implements ITable {
+	TABLE_NAME("stats"),
+	GEN_ID("id"),
+	COUNT("count"),
+	UPDATED("updated");
+
+	private final String property;
+
+	private StatsProperty(String property) {
+		this.property = property;
+	}
+
+	@Override
+	public String toString() {
+		return property;
+	}
+
+	@Override
+	public String getTableName() {
+		return TABLE_NAME.toString();
+	}
+
+	@Override
+	public StatsProperty getId() {
+		return GEN_ID;
+	}
+
+}
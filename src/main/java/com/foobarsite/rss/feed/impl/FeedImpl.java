@@ -1,8 +1,10 @@
 package com.foobarsite.rss.feed.impl;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.foobarsite.rss.common.StringTools;
@@ -29,6 +31,13 @@ public class FeedImpl implements IFeed, Serializable {
 	private Date lastFailedFetch;
 	private String lastFailMsg;
 	private String lastFailResponseCode;
+	private String eTag;
+	private String lastModified;
+	private String bodyHash;
+	private Date watermark;
+	private int itemCount = -1;
+	private List<String> recentFingerprints = new ArrayList<>();
+	private boolean notModified;
 
 	public FeedImpl() {
 		this(null, null);
@@ -199,6 +208,83 @@ public class FeedImpl implements IFeed, Serializable {
 		this.updated = updated;
 	}
 
+	/** ETag header of the last fetch response */
+	@Override
+	public String getETag() {
+		return eTag;
+	}
+
+	@Override
+	public void setETag(String eTag) {
+		this.eTag = eTag;
+	}
+
+	/** Last-Modified header of the last fetch response */
+	@Override
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/** Hash of the last fetched response body */
+	@Override
+	public String getBodyHash() {
+		return bodyHash;
+	}
+
+	@Override
+	public void setBodyHash(String bodyHash) {
+		this.bodyHash = bodyHash;
+	}
+
+	/** Newest publish date of the items saved so far */
+	@Override
+	public Date getWatermark() {
+		return watermark;
+	}
+
+	@Override
+	public void setWatermark(Date watermark) {
+		this.watermark = watermark;
+	}
+
+	/** Items saved for the feed, -1 if not known */
+	@Override
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	@Override
+	public void setItemCount(int itemCount) {
+		this.itemCount = itemCount;
+	}
+
+	/** Fingerprints of the latest fetched entries, newest first */
+	@Override
+	public List<String> getRecentFingerprints() {
+		return recentFingerprints;
+	}
+
+	@Override
+	public void setRecentFingerprints(List<String> recentFingerprints) {
+		this.recentFingerprints = recentFingerprints;
+	}
+
+	/** The last fetch was answered with 304 Not Modified or with the same body as before */
+	@Override
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	@Override
+	public void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+
 	@Override
 	public void clearItems() {
 		getNewFeedItems().clear();
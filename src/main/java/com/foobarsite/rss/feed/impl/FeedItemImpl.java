@@ -18,6 +18,7 @@ public class FeedItemImpl implements Serializable, IFeedItem {
 	private final Date publishDate;
 	private final Date createdDate;
 	private final Date updatedDate;
+	private String fingerprint;
 	private boolean read;
 	private boolean liked;
 
@@ -97,6 +98,17 @@ public class FeedItemImpl implements Serializable, IFeedItem {
 		return updatedDate;
 	}
 
+	/** Hash of title, content, link, author and uri */
+	@Override
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	@Override
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
 	@Override
 	public boolean isRead() {
 		return read;
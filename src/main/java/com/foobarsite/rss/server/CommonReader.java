@@ -1,59 +1,159 @@
 package com.foobarsite.rss.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.foobarsite.rss.common.DateTools;
+import com.foobarsite.rss.common.HashTools;
 import com.foobarsite.rss.common.StringTools;
 import com.foobarsite.rss.common.UrlTools;
 import com.foobarsite.rss.feed.IFeed;
-import com.foobarsite.rss.feed.IFeedItem;
 import com.foobarsite.rss.feed.impl.FeedItemImpl;
+import com.google.common.io.ByteStreams;
 import com.rometools.fetcher.FetcherException;
 import com.rometools.fetcher.impl.FeedFetcherCache;
-import com.rometools.fetcher.impl.HttpClientFeedFetcher;
 import com.rometools.fetcher.impl.SyndFeedInfo;
 import com.rometools.modules.content.ContentModule;
 import com.rometools.rome.feed.module.DCModule;
 import com.rometools.rome.feed.module.Module;
 import com.rometools.rome.feed.synd.SyndCategory;
-import com.rometools.rome.feed.synd.SyndCategoryImpl;
 import com.rometools.rome.feed.synd.SyndContent;
-import com.rometools.rome.feed.synd.SyndContentImpl;
 import com.rometools.rome.feed.synd.SyndEntry;
-import com.rometools.rome.feed.synd.SyndEntryImpl;
 import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.feed.synd.SyndFeedImpl;
-import com.rometools.rome.feed.synd.SyndImage;
-import com.rometools.rome.feed.synd.SyndImageImpl;
 import com.rometools.rome.io.FeedException;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
 
 public abstract class CommonReader implements FeedFetcherCache {
 	public static final Logger LOG = LoggerFactory.getLogger(CommonReader.class);
 	public static final int READ_TIMEOUT = 60000;
 	public static final int CONNECT_TIMEOUT = 20000;
+	public static final int MAX_CONNECTIONS = 100;
+	public static final int MAX_CONNECTIONS_PER_HOST = 4;
+	public static final long IDLE_CONNECTION_TIMEOUT = 30000;
+	public static final int MAX_STREAMED_ENTRIES = 500;
+	/** Consecutive entries at or below the watermark after which the streaming parser stops */
+	public static final int KNOWN_ENTRIES_TO_STOP = 3;
+	/** User-Agent that ROME's HttpClientFeedFetcher sent before the fetch was done here */
+	public static final String USER_AGENT = "Rome Client (http://tinyurl.com/64t5n) Ver: UNKNOWN";
 	public static final List<String> CONTENT_TYPES = Arrays.asList("text/html", "html", "text/plain", "text", "text/xhtml", "xhtml");
 
 	protected int[] fetchInterval = { 0, 4, 0};
 	protected int[] failfetchInterval = { 7, 0, 0};
-	private final HttpClientFeedFetcher feedFetcher;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private final HttpClient httpClient;
+	private final IdleConnectionTimeoutThread idleConnectionCloser;
+	private volatile HostLimiter hostLimiter = new HostLimiter(MAX_CONNECTIONS_PER_HOST, 0, READ_TIMEOUT);
+	/** Feed being fetched by the current thread, the fetcher cache reads and stores its validators */
+	private final ThreadLocal<IFeed> fetching = new ThreadLocal<>();
+	private final AtomicLong fetchCount = new AtomicLong();
+	private final AtomicLong notModifiedCount = new AtomicLong();
+	private final AtomicLong unchangedBodyCount = new AtomicLong();
+	private final AtomicLong streamedCount = new AtomicLong();
+	private final AtomicLong stoppedStreamCount = new AtomicLong();
+	private volatile StreamingFeedParser streamingParser = null;
+	private volatile String userAgent = USER_AGENT;
 
 	public CommonReader() {
-		feedFetcher = new HttpClientFeedFetcher(this);
-		feedFetcher.setConnectTimeout(CONNECT_TIMEOUT);
-		feedFetcher.setReadTimeout(READ_TIMEOUT);
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		connectionManager.getParams().setConnectionTimeout(CONNECT_TIMEOUT);
+		connectionManager.getParams().setSoTimeout(READ_TIMEOUT);
+		connectionManager.getParams().setMaxTotalConnections(MAX_CONNECTIONS);
+		connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+		connectionManager.getParams().setStaleCheckingEnabled(true);
+		httpClient = new HttpClient(connectionManager);
+		httpClient.getParams().setConnectionManagerTimeout(READ_TIMEOUT);
+		idleConnectionCloser = new IdleConnectionTimeoutThread();
+		idleConnectionCloser.setName("http-idle-connection-closer");
+		idleConnectionCloser.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 2);
+		idleConnectionCloser.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+		idleConnectionCloser.addConnectionManager(connectionManager);
+		idleConnectionCloser.start();
 	}
 
 	/**
-	 * Feed check interval
+	 * Size of the http connection pool. Connections are kept alive for reuse by later fetches
+	 * from the same host until they are idle for the idle timeout.
+	 * @param maxTotal connections to all hosts
+	 * @param maxPerHost connections to one host, also resets the host limit to this many requests at a time
+	 */
+	public void setHttpPool(int maxTotal, int maxPerHost) {
+		connectionManager.getParams().setMaxTotalConnections(maxTotal);
+		connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxPerHost);
+		setHostLimit(maxPerHost, 0);
+	}
+
+	/** Connections to all hosts in the http pool */
+	public int getHttpPoolSize() {
+		return connectionManager.getParams().getMaxTotalConnections();
+	}
+
+	/**
+	 * Politeness limit of requests to one host
+	 * @param maxPerHost requests to one host at a time, 0 disables the limit
+	 * @param minDelayMillis time between the starts of two requests to one host
+	 */
+	public void setHostLimit(int maxPerHost, long minDelayMillis) {
+		this.hostLimiter = maxPerHost < 1 ? null : new HostLimiter(maxPerHost, minDelayMillis, READ_TIMEOUT);
+	}
+
+	public HostLimiter getHostLimiter() {
+		return hostLimiter;
+	}
+
+	/**
+	 * User-Agent header of feed requests, some servers refuse or throttle requests without one
+	 * @param userAgent
+	 */
+	public void setUserAgent(String userAgent) {
+		this.userAgent = userAgent;
+	}
+
+	/**
+	 * Parse RSS 2.0 and Atom feeds with the streaming parser, which reads at most maxEntries
+	 * entries and stops at entries already below the feed's watermark. Other formats and
+	 * documents it can't read are parsed with ROME.
+	 * @param enabled
+	 * @param maxEntries entries read from one feed
+	 */
+	public void setStreamingParser(boolean enabled, int maxEntries) {
+		this.streamingParser = enabled ? new StreamingFeedParser(maxEntries, KNOWN_ENTRIES_TO_STOP) : null;
+	}
+
+	/**
+	 * Closes the pooled http connections
+	 */
+	protected void closeHttpClient() {
+		idleConnectionCloser.shutdown();
+		connectionManager.shutdown();
+	}
+
+	/**
+	 * Feed check interval. Feeds already stored keep the next fetch time computed at their last
+	 * save until they are saved again, see {@link RethinkDBDAO#recomputeNextFetch(boolean)}.
 	 * @param days
 	 * @param hours
 	 * @param minutes
@@ -72,18 +172,45 @@ public abstract class CommonReader implements FeedFetcherCache {
 		this.failfetchInterval = new int[] { days, hours, minutes };
 	}
 
-	public IFeed fetch(IFeed feed) throws MalformedURLException {
+	/**
+	 * Fetches the feed with a conditional GET. If the server answers 304 Not Modified or sends the
+	 * same body as last time, the feed is marked {@link IFeed#isNotModified()} and gets no new items.
+	 * @throws HostBusyException if the host limit didn't let the request through, the feed is unchanged
+	 */
+	public IFeed fetch(IFeed feed) throws MalformedURLException, HostBusyException {
 		URL feedUrl = new URL(UrlTools.trimUrl(feed.getUrl()));
-		SyndFeed syndFeed;
+		feed.setNotModified(false);
+		fetching.set(feed);
+		fetchCount.incrementAndGet();
 		try {
-			syndFeed = feedFetcher.retrieveFeed(feedUrl);
-		} catch (FetcherException | FeedException | IOException |  IllegalArgumentException e) {
+			retrieveFeed(feedUrl, feed);
+		} catch (HostBusyException e) {
+			throw e;
+		} catch (FetcherException e) {
+			LOG.warn("Failed at reading '{}': {}", feedUrl, getStackTraceMessage(e));
+			feed.setLastFailedFetch(new Date());
+			feed.setLastFailMsg(getStackTraceMessage(e));
+			if (e.getResponseCode() > 0) {
+				feed.setLastFailResponseCode(String.valueOf(e.getResponseCode()));
+			}
+			return feed;
+		} catch (FeedException | IOException |  IllegalArgumentException e) {
 			LOG.warn("Failed at reading '{}': {}", feedUrl, getStackTraceMessage(e));
 			feed.setLastFailedFetch(new Date());
 			feed.setLastFailMsg(getStackTraceMessage(e));
 			return feed;
+		} finally {
+			fetching.remove();
 		}
 
+		feed.setLastOkFetch(new Date());
+		return feed;
+	}
+
+	/**
+	 * Adds the entries of the feed parsed by ROME to the new items and copies its metadata
+	 */
+	private void readSyndFeed(IFeed feed, SyndFeed syndFeed) {
 		List<SyndEntry> entries = syndFeed.getEntries();
 		for (SyndEntry syndEntry : entries) {
 			String title = StringTools.nullToEmpty(syndEntry.getTitle());
@@ -106,7 +233,6 @@ public abstract class CommonReader implements FeedFetcherCache {
 			feed.setImageUrl(syndFeed.getImage().getUrl());
 		}
 		feed.setLanguage(syndFeed.getLanguage());
-		feed.setLastOkFetch(new Date());
 		if (!syndFeed.getCategories().isEmpty()) {
 			StringBuilder builder = new StringBuilder();
 			for (SyndCategory cat : syndFeed.getCategories()) {
@@ -114,71 +240,185 @@ public abstract class CommonReader implements FeedFetcherCache {
 			}
 			feed.setCategories(builder.toString());
 		}
+	}
 
-		return feed;
+	/**
+	 * GET with the validators of the last response. The body is parsed only if its hash differs
+	 * from the hash stored on the feed, otherwise the feed is marked not modified. The validators
+	 * and hash of the new response are set on the feed once its body was parsed.
+	 */
+	private void retrieveFeed(URL feedUrl, IFeed feed) throws FetcherException, FeedException, IOException {
+		HostLimiter limiter = hostLimiter;
+		if (limiter != null) {
+			try {
+				if (!limiter.acquire(feedUrl.getHost())) {
+					throw new HostBusyException("Timed out waiting for other requests to " + feedUrl.getHost());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new HostBusyException("Interrupted waiting for other requests to " + feedUrl.getHost());
+			}
+		}
+		try {
+			retrieveFeed(feedUrl, feed, new GetMethod(feedUrl.toString()));
+		} finally {
+			if (limiter != null) {
+				limiter.release(feedUrl.getHost());
+			}
+		}
 	}
 
-	public abstract IFeed loadFeed(String url);
+	private void retrieveFeed(URL feedUrl, IFeed feed, GetMethod method) throws FetcherException, FeedException, IOException {
+		try {
+			method.setFollowRedirects(true);
+			method.setRequestHeader("Accept-Encoding", "gzip");
+			if (!StringTools.isBlankOrNull(userAgent)) {
+				method.setRequestHeader("User-Agent", userAgent);
+			}
+			SyndFeedInfo cachedInfo = getFeedInfo(feedUrl);
+			if (cachedInfo != null) {
+				if (cachedInfo.getETag() != null) {
+					method.setRequestHeader("If-None-Match", cachedInfo.getETag());
+				}
+				if (cachedInfo.getLastModified() instanceof String) {
+					method.setRequestHeader("If-Modified-Since", (String) cachedInfo.getLastModified());
+				}
+			}
+
+			int statusCode = httpClient.executeMethod(method);
+			if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+				notModifiedCount.incrementAndGet();
+				feed.setNotModified(true);
+				LOG.info("Feed '{}' not modified", feedUrl);
+				return;
+			}
+			if (statusCode != HttpStatus.SC_OK) {
+				throw new FetcherException(statusCode, "Unexpected response " + method.getStatusLine());
+			}
 
-	@Override
-	public SyndFeedInfo getFeedInfo(URL feedUrl) {
-		IFeed feed = loadFeed(feedUrl.toString());
-		if (feed != null) {
 			SyndFeedInfo feedInfo = new SyndFeedInfo();
-			feedInfo.setLastModified(feed.getUpdated().getTime());
 			feedInfo.setUrl(feedUrl);
-			feedInfo.setId(feed.getUrl());
-			SyndFeed syndFeed = new SyndFeedImpl();
-			syndFeed.setAuthor(feed.getAuthor());
-			syndFeed.setDescription(feed.getDescription());
-			syndFeed.setCopyright(feed.getCopyright());
-			if (!StringTools.isBlankOrNull(feed.getImageUrl())) {
-				SyndImage image = new SyndImageImpl();
-				image.setUrl(feed.getImageUrl());
-				syndFeed.setImage(image);
-			}
-			syndFeed.setLanguage(feed.getLanguage());
-			if (!StringTools.isBlankOrNull(feed.getCategories())) {
-				String[] categories = feed.getCategories().split(";");
-				List<SyndCategory> categoryList = new ArrayList<>();
-				for (String category : categories) {
-					SyndCategory cat = new SyndCategoryImpl();
-					cat.setName(category);
-					categoryList.add(cat);
+			feedInfo.setId(feedUrl.toString());
+			Header eTag = method.getResponseHeader("ETag");
+			feedInfo.setETag(eTag == null ? null : eTag.getValue());
+			Header lastModified = method.getResponseHeader("Last-Modified");
+			feedInfo.setLastModified(lastModified == null ? null : lastModified.getValue());
+
+			byte[] body = readBody(method);
+			String bodyHash = HashTools.hash(body);
+			if (bodyHash.equals(feed.getBodyHash())) {
+				unchangedBodyCount.incrementAndGet();
+				feed.setNotModified(true);
+				setFeedInfo(feedUrl, feedInfo);
+				LOG.info("Feed '{}' body unchanged", feedUrl);
+				return;
+			}
+
+			Header contentType = method.getResponseHeader("Content-Type");
+			parseBody(feedUrl, feed, body, contentType == null ? null : contentType.getValue());
+			// validators of a body that couldn't be parsed would skip it on the next fetch
+			setFeedInfo(feedUrl, feedInfo);
+			feed.setBodyHash(bodyHash);
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	private void parseBody(URL feedUrl, IFeed feed, byte[] body, String contentType) throws FeedException, IOException {
+		StreamingFeedParser parser = streamingParser;
+		if (parser != null) {
+			try (Reader reader = new XmlReader(new ByteArrayInputStream(body), contentType, true)) {
+				StreamingFeedParser.Result result = parser.parse(reader, feed);
+				if (result != StreamingFeedParser.Result.UNSUPPORTED) {
+					streamedCount.incrementAndGet();
+					if (result == StreamingFeedParser.Result.STOPPED) {
+						stoppedStreamCount.incrementAndGet();
+					}
+					return;
 				}
-				syndFeed.setCategories(categoryList);
-			}
-
-			List<SyndEntry> entries = new ArrayList<>();
-			for (IFeedItem item : feed.getFeedItems()) {
-				SyndEntry entry = new SyndEntryImpl();
-				entry.setTitle(item.getTitle());
-				List<SyndContent> contents = new ArrayList<>();
-				SyndContent content = new SyndContentImpl();
-				content.setValue(item.getContent());
-				content.setType(CONTENT_TYPES.get(0));
-				contents.add(content);
-				entry.setContents(contents);
-				entry.setLink(item.getLink());
-				entry.setAuthor(item.getAuthor());
-				entry.setUri(item.getUri());
-				entry.setPublishedDate(item.getPublishDate());
-				entry.setUpdatedDate(item.getUpdatedDate());
-				entries.add(entry);
-			}
-			syndFeed.setEntries(entries);
-
-			feedInfo.setSyndFeed(syndFeed);
-			return feedInfo;
-		}
-		else {
+			} catch (XMLStreamException e) {
+				LOG.debug("Streaming parser failed at reading '{}', parsing it with ROME: {}", feedUrl, getStackTraceMessage(e));
+			}
+		}
+		SyndFeedInput input = new SyndFeedInput();
+		readSyndFeed(feed, input.build(new XmlReader(new ByteArrayInputStream(body), contentType, true)));
+	}
+
+	private byte[] readBody(HttpMethod method) throws IOException {
+		InputStream stream = method.getResponseBodyAsStream();
+		if (stream == null) {
+			return new byte[0];
+		}
+		Header encoding = method.getResponseHeader("Content-Encoding");
+		if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+			stream = new GZIPInputStream(stream);
+		}
+		try {
+			return ByteStreams.toByteArray(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/** Feed fetches started */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/** Fetches answered with 304 Not Modified */
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/** Fetches that returned the same body as the previous fetch and weren't parsed */
+	public long getUnchangedBodyCount() {
+		return unchangedBodyCount.get();
+	}
+
+	/** Fetches read by the streaming parser */
+	public long getStreamedCount() {
+		return streamedCount.get();
+	}
+
+	/** Streamed fetches that stopped at the entry limit or the watermark */
+	public long getStoppedStreamCount() {
+		return stoppedStreamCount.get();
+	}
+
+	public abstract IFeed loadFeed(String url);
+
+	/**
+	 * Validators of the last response for the conditional GET, null if there are none
+	 */
+	@Override
+	public SyndFeedInfo getFeedInfo(URL feedUrl) {
+		IFeed feed = fetching.get();
+		if (feed == null) {
+			feed = loadFeed(feedUrl.toString());
+		}
+		if (feed == null || (StringTools.isBlankOrNull(feed.getETag()) && StringTools.isBlankOrNull(feed.getLastModified()))) {
 			return null;
 		}
+		SyndFeedInfo feedInfo = new SyndFeedInfo();
+		feedInfo.setUrl(feedUrl);
+		feedInfo.setId(feed.getUrl());
+		feedInfo.setETag(StringTools.isBlankOrNull(feed.getETag()) ? null : feed.getETag());
+		feedInfo.setLastModified(StringTools.isBlankOrNull(feed.getLastModified()) ? null : feed.getLastModified());
+		feedInfo.setSyndFeed(new SyndFeedImpl());
+		return feedInfo;
 	}
 
+	/**
+	 * Keeps the validators of the response on the feed being fetched, they get saved with it
+	 */
 	@Override
 	public void setFeedInfo(URL feedUrl, SyndFeedInfo syndFeedInfo) {
-		// Do nothing, feed gets saved later
+		IFeed feed = fetching.get();
+		if (feed != null && syndFeedInfo != null) {
+			feed.setETag(syndFeedInfo.getETag());
+			Object lastModified = syndFeedInfo.getLastModified();
+			feed.setLastModified(lastModified instanceof String ? (String) lastModified : null);
+		}
 	}
 
 	@Override
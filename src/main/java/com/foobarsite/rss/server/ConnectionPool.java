@@ -0,0 +1,226 @@
+package com.foobarsite.rss.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dkhenry.RethinkDB.errors.RqlDriverException;
+
+/**
+ * Bounded pool of connections. At most maxSize connections are open at a time, callers
+ * wait for a free one up to the borrow timeout. Connections idle longer than maxIdleMillis are
+ * closed down to minSize and connections that have been idle for a while are checked before they
+ * are handed out.
+ */
+public class ConnectionPool<C> {
+	public static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+	public static final long DEFAULT_MAX_IDLE_MILLIS = 5 * 60000;
+	public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+	public static final long DEFAULT_VALIDATE_AFTER_MILLIS = 10000;
+
+	public interface IConnectionFactory<C> {
+		C create() throws RqlDriverException;
+		boolean validate(C connection);
+		void close(C connection) throws RqlDriverException;
+	}
+
+	private static class IdleConnection<C> {
+		private final C connection;
+		private final long since;
+
+		IdleConnection(C connection) {
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	private final IConnectionFactory<C> factory;
+	private final int minSize;
+	private final int maxSize;
+	private final long maxIdleMillis;
+	private final long borrowTimeoutMillis;
+	private final long validateAfterMillis;
+	private final LinkedBlockingDeque<IdleConnection<C>> idle = new LinkedBlockingDeque<>();
+	private final Semaphore permits;
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger destroyed = new AtomicInteger();
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed = false;
+
+	public ConnectionPool(IConnectionFactory<C> factory, int minSize, int maxSize) {
+		this(factory, minSize, maxSize, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_VALIDATE_AFTER_MILLIS);
+	}
+
+	public ConnectionPool(IConnectionFactory<C> factory, int minSize, int maxSize, long maxIdleMillis, long borrowTimeoutMillis, long validateAfterMillis) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size " + minSize + " - " + maxSize);
+		}
+		this.factory = factory;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxIdleMillis = maxIdleMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.validateAfterMillis = validateAfterMillis;
+		this.permits = new Semaphore(maxSize, true);
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rql-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000, maxIdleMillis / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/** Opens minSize connections so that the first callers don't pay for connecting */
+	public void warmUp() {
+		while (!closed && created.get() - destroyed.get() < minSize) {
+			try {
+				idle.offerLast(new IdleConnection<C>(factory.create()));
+				created.incrementAndGet();
+			} catch (RqlDriverException e) {
+				LOG.error(e.getMessage(), e);
+				return;
+			}
+		}
+		LOG.info("Connection pool warmed up with {} connections", idle.size());
+	}
+
+	public C borrow() throws RqlDriverException {
+		if (closed) {
+			throw new RqlDriverException("Connection pool is closed");
+		}
+		waiting.incrementAndGet();
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new RqlDriverException("Timed out waiting for a connection, " + inUse.get() + " in use");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RqlDriverException("Interrupted while waiting for a connection");
+		} finally {
+			waiting.decrementAndGet();
+		}
+
+		try {
+			IdleConnection<C> idleConnection;
+			while ((idleConnection = idle.pollFirst()) != null) {
+				boolean stale = System.currentTimeMillis() - idleConnection.since > validateAfterMillis;
+				if (!stale || factory.validate(idleConnection.connection)) {
+					inUse.incrementAndGet();
+					return idleConnection.connection;
+				}
+				LOG.warn("Discarding broken connection");
+				destroy(idleConnection.connection);
+			}
+			C connection = factory.create();
+			created.incrementAndGet();
+			inUse.incrementAndGet();
+			return connection;
+		} catch (RqlDriverException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public void release(C connection) {
+		if (connection == null) {
+			return;
+		}
+		inUse.decrementAndGet();
+		if (closed) {
+			destroy(connection);
+		}
+		else {
+			idle.offerFirst(new IdleConnection<C>(connection));
+		}
+		permits.release();
+	}
+
+	/** Closes a connection that failed instead of returning it to the pool */
+	public void invalidate(C connection) {
+		if (connection == null) {
+			return;
+		}
+		inUse.decrementAndGet();
+		destroy(connection);
+		permits.release();
+	}
+
+	public void close() {
+		closed = true;
+		evictor.shutdownNow();
+		IdleConnection<C> idleConnection;
+		while ((idleConnection = idle.pollFirst()) != null) {
+			destroy(idleConnection.connection);
+		}
+		LOG.info("Connection pool closed, {}", this);
+	}
+
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	public int getIdle() {
+		return idle.size();
+	}
+
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	public int getCreated() {
+		return created.get();
+	}
+
+	public int getDestroyed() {
+		return destroyed.get();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** Closes the connections idle longer than maxIdleMillis down to minSize, run periodically */
+	void evictIdle() {
+		IdleConnection<C> oldest;
+		while (idle.size() > minSize && (oldest = idle.peekLast()) != null
+				&& System.currentTimeMillis() - oldest.since > maxIdleMillis) {
+			if (idle.removeLastOccurrence(oldest)) {
+				destroy(oldest.connection);
+			}
+		}
+	}
+
+	private void destroy(C connection) {
+		destroyed.incrementAndGet();
+		try {
+			factory.close(connection);
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [inUse=" + inUse.get() + ", idle=" + idle.size() + ", waiting=" + waiting.get()
+				+ ", created=" + created.get() + ", destroyed=" + destroyed.get() + ", min=" + minSize + ", max=" + maxSize + "]";
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.foobarsite.rss.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Duplicate item pairs found by an item integrity scan and the errors that cut the scan short.
+ * Safe to fill from several threads.
+ */
+public class DuplicateReport {
+
+	public enum Kind {
+		/** Same title, link, uri and content */
+		EQUAL,
+		/** Same title, link, uri, publish hour and author */
+		EQUAL_METADATA,
+		LINK,
+		URI,
+		TITLE_PUBLISHED_CONTENT
+	}
+
+	public static class Duplicate {
+		private final Kind kind;
+		private final String feedId;
+		private final String itemId;
+		private final String existingItemId;
+		private final String key;
+
+		public Duplicate(Kind kind, String feedId, String itemId, String existingItemId, String key) {
+			this.kind = kind;
+			this.feedId = feedId;
+			this.itemId = itemId;
+			this.existingItemId = existingItemId;
+			this.key = key;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public String getFeedId() {
+			return feedId;
+		}
+
+		public String getItemId() {
+			return itemId;
+		}
+
+		public String getExistingItemId() {
+			return existingItemId;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " duplicate items '" + itemId + "','" + existingItemId + "' of feed '" + feedId + "' for '" + key + "'";
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Duplicate> duplicates = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger itemCount = new AtomicInteger();
+	private final AtomicInteger feedCount = new AtomicInteger();
+
+	public void add(Duplicate duplicate) {
+		duplicates.add(duplicate);
+	}
+
+	/** The scan didn't see all items */
+	public void addFailure(String message) {
+		failures.add(message);
+	}
+
+	public void addItems(int count) {
+		itemCount.addAndGet(count);
+	}
+
+	public void addFeed() {
+		feedCount.incrementAndGet();
+	}
+
+	public List<Duplicate> getDuplicates() {
+		return new ArrayList<>(duplicates);
+	}
+
+	public List<String> getFailures() {
+		return new ArrayList<>(failures);
+	}
+
+	public int getItemCount() {
+		return itemCount.get();
+	}
+
+	public int getFeedCount() {
+		return feedCount.get();
+	}
+
+	/** All items were checked */
+	public boolean isComplete() {
+		return failures.isEmpty();
+	}
+
+	/** All items were checked and no duplicates were found */
+	public boolean isOk() {
+		return duplicates.isEmpty() && failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "DuplicateReport [items=" + itemCount.get() + ", feeds=" + feedCount.get() + ", duplicates=" + duplicates.size() + ", failures=" + failures.size() + "]";
+	}
+
+}
@@ -0,0 +1,16 @@
+package com.foobarsite.rss.server;
+
+import java.io.IOException;
+
+/**
+ * A fetch didn't get its turn at the host within the wait time of the {@link HostLimiter}. The
+ * feed wasn't requested, so it's not a failure of the feed and it can be fetched again later.
+ */
+public class HostBusyException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public HostBusyException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.foobarsite.rss.server;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Politeness limit for requests to one host: at most maxPerHost requests at a time, each started
+ * at least minDelayMillis after the previous request to the same host started.
+ */
+public class HostLimiter {
+
+	private static class Host {
+		private final Semaphore permits;
+		private long lastStart = 0;
+
+		private Host(int maxPerHost) {
+			this.permits = new Semaphore(maxPerHost, true);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+	private final int maxPerHost;
+	private final long minDelayMillis;
+	private final long maxWaitMillis;
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong waited = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param maxPerHost requests to one host at a time
+	 * @param minDelayMillis time between the starts of two requests to one host
+	 * @param maxWaitMillis how long a request waits for its turn before {@link #acquire(String)} gives up
+	 */
+	public HostLimiter(int maxPerHost, long minDelayMillis, long maxWaitMillis) {
+		if (maxPerHost < 1 || minDelayMillis < 0 || maxWaitMillis < 0) {
+			throw new IllegalArgumentException("Invalid host limit " + maxPerHost + ", delay " + minDelayMillis + " or wait " + maxWaitMillis);
+		}
+		this.maxPerHost = maxPerHost;
+		this.minDelayMillis = minDelayMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * Waits for the turn of the host, a successful call must be followed by {@link #release(String)}
+	 * @return false if the wait timed out
+	 */
+	public boolean acquire(String host) throws InterruptedException {
+		Host limit = getHost(host);
+		if (!limit.permits.tryAcquire()) {
+			waited.incrementAndGet();
+			if (!limit.permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				rejected.incrementAndGet();
+				return false;
+			}
+		}
+		if (minDelayMillis > 0) {
+			long delay;
+			synchronized (limit) {
+				long now = System.currentTimeMillis();
+				long start = Math.max(now, limit.lastStart + minDelayMillis);
+				limit.lastStart = start;
+				delay = start - now;
+			}
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					limit.permits.release();
+					throw e;
+				}
+			}
+		}
+		acquired.incrementAndGet();
+		return true;
+	}
+
+	public void release(String host) {
+		getHost(host).permits.release();
+	}
+
+	private Host getHost(String host) {
+		String key = host == null ? "" : host.toLowerCase(Locale.ENGLISH);
+		Host limit = hosts.get(key);
+		if (limit == null) {
+			Host created = new Host(maxPerHost);
+			limit = hosts.putIfAbsent(key, created);
+			if (limit == null) {
+				limit = created;
+			}
+		}
+		return limit;
+	}
+
+	/** Requests that got their turn */
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	/** Requests that had to wait for another request to the same host */
+	public long getWaited() {
+		return waited.get();
+	}
+
+	/** Requests that gave up waiting */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return "HostLimiter [hosts=" + hosts.size() + ", acquired=" + acquired.get() + ", waited=" + waited.get()
+				+ ", rejected=" + rejected.get() + "]";
+	}
+
+}
@@ -0,0 +1,12 @@
+package com.foobarsite.rss.server;
+
+import java.util.List;
+
+public interface IBatchHandler<T> {
+
+	/**
+	 * @return false to stop reading more batches
+	 */
+	boolean handle(List<T> batch);
+
+}
@@ -1,36 +1,53 @@
 package com.foobarsite.rss.server;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.foobarsite.rss.feed.IFeed;
 import com.foobarsite.rss.feed.IFeedItem;
 import com.foobarsite.rss.feed.Pair;
+import com.foobarsite.rss.feed.desc.FeedItemProperty;
 import com.foobarsite.rss.feed.desc.ITable;
 
 public interface IFeedReader {
 
 	String getDbName();
 	int getRowCountFor(ITable table);
+	int getItemCountFor(String feedId);
+	int recountRowsFor(ITable table);
+	int recountItemsFor(String feedId);
 	Pair<Boolean, Boolean> canUpdate(final String feedId);
+	List<String> getDueFeedIds(int limit);
 	void setFetchInterval(int days, int hours, int minutes);
 
 	IFeed save(IFeed feed);
 	IFeed loadFeed(String url);
 	IFeed loadFeedItems(IFeed feed);
 	List<IFeed> loadFeeds(List<String> ids, boolean loadContent);
+	List<IFeed> loadFeeds(List<String> ids, Set<FeedItemProperty> itemFields);
 
 	boolean deleteItem(IFeedItem feed);
 	IFeedItem getExistingFeedItem(final String feedid, String link, String uri, String title);
 	List<IFeedItem> saveItems(IFeed feed);
 	boolean saveItem(IFeedItem item);
+	int flush();
+	void sync();
 
 	List<String> getProperties(ITable property);
+	int getProperties(ITable property, int batchSize, IBatchHandler<String> handler);
 
 	int updateFeeds(List<String> ids);
+	int updateDueFeeds(int limit);
 	int trimFeedUrlSlashes(List<String> ids);
 	int trimItemWhiteSpace(List<String> ids);
+	int backfillItemKeys(List<String> feedIds);
+	int recomputeNextFetch(boolean all);
 
 	void testFeedItems();
 	void testFeeds();
+	Map<String, List<String>> getDuplicateFeedUrls();
+
+	void shutdown();
 
 }
\ No newline at end of file
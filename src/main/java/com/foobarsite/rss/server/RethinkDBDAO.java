@@ -7,14 +7,30 @@ import static com.foobarsite.rss.common.StringTools.areEquals;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +44,7 @@ import com.dkhenry.RethinkDB.RqlQuery.GetField;
 import com.dkhenry.RethinkDB.RqlQuery.Var;
 import com.dkhenry.RethinkDB.errors.RqlDriverException;
 import com.foobarsite.rss.common.DateTools;
+import com.foobarsite.rss.common.HashTools;
 import com.foobarsite.rss.common.StringTools;
 import com.foobarsite.rss.common.UrlTools;
 import com.foobarsite.rss.feed.IFeed;
@@ -36,8 +53,20 @@ import com.foobarsite.rss.feed.Pair;
 import com.foobarsite.rss.feed.desc.FeedItemProperty;
 import com.foobarsite.rss.feed.desc.FeedProperty;
 import com.foobarsite.rss.feed.desc.ITable;
+import com.foobarsite.rss.feed.desc.StatsProperty;
 import com.foobarsite.rss.feed.impl.FeedImpl;
 import com.foobarsite.rss.feed.impl.FeedItemImpl;
+import com.foobarsite.rss.server.WritePolicy.Operation;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 	public static final Logger LOG = LoggerFactory.getLogger(RethinkDBDAO.class);
@@ -49,66 +78,365 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 	public static final String ATTR_UNCHANGED = "unchanged";
 	public static final String ATTR_SKIPPED = "skipped";
 	public static final String ATTR_ERRORS = "errors";
+	public static final String ATTR_GROUP = "group";
+	public static final String ATTR_REDUCTION = "reduction";
+
+	public static final String COMPOUND_KEY_SEPARATOR = "|";
+	/** Sorts after every generated and hashed key */
+	public static final String MAX_KEY = "\uffff";
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	public static final Set<FeedItemProperty> ITEM_FIELDS_ALL = Collections.unmodifiableSet(
+			EnumSet.complementOf(EnumSet.of(FeedItemProperty.TABLE_NAME)));
+	public static final Set<FeedItemProperty> ITEM_FIELDS_WITHOUT_CONTENT = Collections.unmodifiableSet(
+			EnumSet.complementOf(EnumSet.of(FeedItemProperty.TABLE_NAME, FeedItemProperty.CONTENT)));
+	public static final String TRIM_REGEXP = "^\\s*([\\s\\S]*?)\\s*$";
+	public static final String TRIM_SLASH_REGEXP = "^\\s*([\\s\\S]*?)/?\\s*$";
 
 	private final HashMap<String,Object> feedIdIndex = new HashMap<String,Object>();
 	private final HashMap<String,Object> urlIndex = new HashMap<String,Object>();
+	private final HashMap<String,Object> nextFetchIndex = new HashMap<String,Object>();
+	private final HashMap<String,Object> primaryIndex = new HashMap<String,Object>();
+	private final HashMap<String,Object> keysetRange = new HashMap<String,Object>();
+	private final HashMap<String,Object> feedLinkIndex = new HashMap<String,Object>();
+	private final HashMap<String,Object> feedUriIndex = new HashMap<String,Object>();
+	private final HashMap<String,Object> conflictUpdate = new HashMap<String,Object>();
+	private final HashMap<String,Object> conflictReplace = new HashMap<String,Object>();
+
+	private boolean batchItemWrites = true;
+	private boolean deterministicItemIds = false;
+	private boolean deterministicFeedIds = false;
+	private boolean ingestWatermark = false;
+	private int recentFingerprintLimit = 200;
+	private int bulkBatchSize = 500;
+	private boolean twoPhaseFeedLoad = true;
+	private int scanParallelism = Runtime.getRuntime().availableProcessors();
+	private long counterMaxAgeMillis = 30000;
+	private final ConcurrentHashMap<String, CachedCount> counters = new ConcurrentHashMap<>();
+	private volatile Cache<String, Map<String,Object>> feedCache = null;
+	private volatile Cache<String, String> feedIdCache = null;
+
+	private final ThreadLocal<ConnectionLease> connectionLease = new ThreadLocal<>();
+	private volatile RqlConnectionPool connectionPool = null;
+	private volatile ListeningExecutorService queryExecutor = null;
+	private volatile ListeningExecutorService saveExecutor = null;
+	private volatile ListeningExecutorService fetchExecutor = null;
+	private boolean virtualThreadFetch = false;
+	private volatile Semaphore fetchPermits = null;
+	private volatile Semaphore savePermits = null;
+	private volatile WriteBehindBuffer writeBehind = null;
+	private final SingleFlight<String, IFeed> singleFlight = new SingleFlight<>(2 * READ_TIMEOUT);
+	private final Map<Operation, WritePolicy> writePolicies = new EnumMap<>(Operation.class);
+	private final Set<ListenableFuture<RqlCursor>> unacknowledged = Collections.newSetFromMap(new ConcurrentHashMap<ListenableFuture<RqlCursor>, Boolean>());
+	private volatile ScheduledExecutorService syncScheduler = null;
+	private int minConnections = 2;
+	private int maxConnections = 10;
+
+	/** Pool connection held by the current thread, nested DAO calls reuse it */
+	private static class ConnectionLease {
+		private final RqlConnection connection;
+		private int depth = 0;
+		private boolean broken = false;
+
+		ConnectionLease(RqlConnection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/** Counter value as last read or written by this reader */
+	private static class CachedCount {
+		private final AtomicInteger count;
+		private final long readAt;
+
+		CachedCount(int count) {
+			this.count = new AtomicInteger(count);
+			this.readAt = System.currentTimeMillis();
+		}
+	}
+
+	/** Conditional GET validators and body hash of a feed */
+	private static class Validators {
+		private final String eTag;
+		private final String lastModified;
+		private final String bodyHash;
 
-	private static ThreadLocal<RqlConnection> connectionTL = null;
+		private Validators(IFeed feed) {
+			this.eTag = feed.getETag();
+			this.lastModified = feed.getLastModified();
+			this.bodyHash = feed.getBodyHash();
+		}
+
+		void applyTo(IFeed feed) {
+			feed.setETag(eTag);
+			feed.setLastModified(lastModified);
+			feed.setBodyHash(bodyHash);
+		}
+	}
 
 	public RethinkDBDAO() {
-		connectionTL = new ThreadLocal<RqlConnection>() {
+		feedIdIndex.put("index", "feed_id");
+		urlIndex.put("index", "url");
+		nextFetchIndex.put("index", FeedProperty.NEXT_FETCH.toString());
+		primaryIndex.put("index", "id");
+		keysetRange.put("left_bound", "open");
+		feedLinkIndex.put("index", FeedItemProperty.FEED_LINK.toString());
+		feedUriIndex.put("index", FeedItemProperty.FEED_URI.toString());
+		conflictUpdate.put("conflict", "update");
+		conflictReplace.put("conflict", "replace");
+		for (Operation operation : Operation.values()) {
+			writePolicies.put(operation, WritePolicy.HARD);
+		}
+		setFeedCache(10000, 10 * 60000);
+	}
 
-			@Override
-			protected RqlConnection initialValue() {
-				RqlConnection connection = null;
-				LOG.info("Creating new connection to {}:{}", getServerHost(), getServerPort());
-				try {
-					connection = RqlConnection.connect(getServerHost(), getServerPort());
-				} catch (RqlDriverException e) {
-					LOG.error(e.getMessage(), e);
+	/**
+	 * Connection pool size, must be set before the first query
+	 * @param min connections opened at startup and kept open when idle
+	 * @param max connections open at most, callers wait for a free connection after that
+	 */
+	public void setConnectionPoolSize(int min, int max) {
+		this.minConnections = min;
+		this.maxConnections = max;
+	}
+
+	/**
+	 * How long a row counter read from the stats table is used before it's read again. Writes
+	 * through this reader update the cached value, writes of other processes show up after this.
+	 * @param counterMaxAgeMillis
+	 */
+	public void setCounterMaxAge(long counterMaxAgeMillis) {
+		this.counterMaxAgeMillis = counterMaxAgeMillis;
+	}
+
+	/**
+	 * Acknowledgement of one kind of write, all writes are {@link WritePolicy#HARD} by default
+	 * @param operation
+	 * @param policy
+	 */
+	public void setWritePolicy(Operation operation, WritePolicy policy) {
+		writePolicies.put(operation, policy);
+	}
+
+	/**
+	 * Acknowledgement of all writes
+	 * @param policy
+	 */
+	public void setWritePolicy(WritePolicy policy) {
+		for (Operation operation : Operation.values()) {
+			writePolicies.put(operation, policy);
+		}
+	}
+
+	/**
+	 * Runs {@link #sync()} periodically so that soft writes reach the disk within the interval,
+	 * 0 stops it
+	 * @param syncIntervalMillis
+	 */
+	public synchronized void setSyncInterval(long syncIntervalMillis) {
+		if (syncScheduler != null) {
+			syncScheduler.shutdownNow();
+			syncScheduler = null;
+		}
+		if (syncIntervalMillis > 0) {
+			syncScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("rql-sync-%d").setDaemon(true).build());
+			syncScheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sync();
 				}
-				return connection;
-			}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
 
+	/**
+	 * Buffer {@link #saveItem(IFeedItem)} updates and write them in batches, repeated updates of
+	 * an item within the window become one write. Replaces a previously enabled buffer after
+	 * flushing it.
+	 * @param maxPending items waiting at most before the buffer is flushed
+	 * @param maxDelayMillis time between periodic flushes
+	 */
+	public void enableWriteBehind(int maxPending, long maxDelayMillis) {
+		WriteBehindBuffer previous = writeBehind;
+		writeBehind = new WriteBehindBuffer(new WriteBehindBuffer.IWriter() {
 			@Override
-			public void remove() {
-				LOG.info("Closing connection to {}:{}", getServerHost(), getServerPort());
-				RqlConnection connection = get();
-				if (connection != null) {
-					try {
-						connection.close();
-					} catch (RqlDriverException e) {
-						LOG.error(e.getMessage(), e);
-					}
-				}
-				super.remove();
-			};
-		};
+			public boolean write(List<Map<String, Object>> documents) {
+				return writeItemUpdates(documents);
+			}
+		}, FeedItemProperty.GEN_ID.toString(), maxPending, maxDelayMillis);
+		if (previous != null) {
+			previous.close();
+		}
+	}
 
-		feedIdIndex.put("index", "feed_id");
-		urlIndex.put("index", "url");
+	/**
+	 * Feed documents kept in memory by id and canonical url. Saves through this reader update the
+	 * cached documents, changes made by other processes show up after the expiry time.
+	 * @param maximumSize feeds cached at most
+	 * @param expireAfterWriteMillis
+	 */
+	public void setFeedCache(long maximumSize, long expireAfterWriteMillis) {
+		feedCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS).recordStats().build();
+		feedIdCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS).recordStats().build();
+	}
+
+	/**
+	 * How long an update of a feed waits for an update of the same url that is already running,
+	 * the waiting caller gets the feed as it was if the running update takes longer. 0 waits forever.
+	 * @param fetchWaitTimeoutMillis
+	 */
+	public void setFetchWaitTimeout(long fetchWaitTimeoutMillis) {
+		singleFlight.setWaitTimeout(fetchWaitTimeoutMillis);
+	}
+
+	public SingleFlight<String, IFeed> getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Run each feed update of {@link #updateFeeds(List)} on its own virtual thread, fetching and
+	 * saving it there instead of fetching the feeds one after another on the calling thread
+	 * @param virtualThreadFetch
+	 */
+	public void setVirtualThreadFetch(boolean virtualThreadFetch) {
+		this.virtualThreadFetch = virtualThreadFetch;
+	}
+
+	/**
+	 * Feed updates in each stage at a time. Fetches are limited to the size of the http pool by
+	 * default, as a fetch waiting for a pooled http connection blocks the carrier thread of its
+	 * virtual thread. Saves are limited to half of the connection pool by default, as a save also
+	 * runs queries on other pooled connections.
+	 * @param fetches feeds downloaded and parsed at a time
+	 * @param saves feeds written at a time
+	 */
+	public synchronized void setStageConcurrency(int fetches, int saves) {
+		this.fetchPermits = new Semaphore(fetches, true);
+		this.savePermits = new Semaphore(saves, true);
+	}
+
+	/**
+	 * Ids per query in server side bulk updates
+	 * @param bulkBatchSize
+	 */
+	public void setBulkBatchSize(int bulkBatchSize) {
+		this.bulkBatchSize = bulkBatchSize;
+	}
+
+	/**
+	 * Load feeds and their items with two get_all queries instead of an eq_join that repeats the
+	 * feed document for every item
+	 * @param twoPhaseFeedLoad
+	 */
+	public void setTwoPhaseFeedLoad(boolean twoPhaseFeedLoad) {
+		this.twoPhaseFeedLoad = twoPhaseFeedLoad;
 	}
 
+	/**
+	 * Threads checking feeds in an item integrity scan
+	 * @param scanParallelism
+	 */
+	public void setScanParallelism(int scanParallelism) {
+		this.scanParallelism = scanParallelism;
+	}
+
+	/**
+	 * Write new and changed items of a feed with one insert and one update instead of a lookup
+	 * and a write per item
+	 * @param batchItemWrites
+	 */
+	public void setBatchItemWrites(boolean batchItemWrites) {
+		this.batchItemWrites = batchItemWrites;
+	}
+
+	/**
+	 * Derive item ids from the feed id and the item's uri, link or title and publish date, so that
+	 * items are looked up by their primary key and the same item can't be inserted twice. Items
+	 * saved before with generated ids are not found by their derived id.
+	 * @param deterministicItemIds
+	 */
+	public void setDeterministicItemIds(boolean deterministicItemIds) {
+		this.deterministicItemIds = deterministicItemIds;
+	}
+
+	/**
+	 * Derive feed ids from the canonical feed url, so that a feed is loaded by its primary key and
+	 * saving the same new feed twice can't create two feeds. Feeds saved before with generated ids
+	 * are not found by their url.
+	 * @param deterministicFeedIds
+	 */
+	public void setDeterministicFeedIds(boolean deterministicFeedIds) {
+		this.deterministicFeedIds = deterministicFeedIds;
+	}
+
+	/**
+	 * Also drop fetched entries published at or before the newest saved entry of the feed before
+	 * any item lookup, off by default. An edit of such an entry is saved only if the edit also
+	 * changes its publish date past the watermark, and a new entry with an older publish date is
+	 * never saved. Entries whose fingerprint was seen in one of the latest fetches are always
+	 * dropped, an edit changes the fingerprint.
+	 * @param ingestWatermark
+	 */
+	public void setIngestWatermark(boolean ingestWatermark) {
+		this.ingestWatermark = ingestWatermark;
+	}
+
+	/**
+	 * Entry fingerprints kept on a feed to recognize entries fetched before
+	 * @param recentFingerprintLimit
+	 */
+	public void setRecentFingerprintLimit(int recentFingerprintLimit) {
+		this.recentFingerprintLimit = recentFingerprintLimit;
+	}
+
+	/**
+	 * Feeds are fetched one after another on the calling thread while the writes of the
+	 * previously fetched feeds run on the save executor. Fetching waits while all save permits
+	 * of {@link #setStageConcurrency(int, int)} are taken.
+	 */
 	@Override
 	public int updateFeeds(List<String> ids) {
+		return updateFeeds(ids, false);
+	}
+
+	@Override
+	public int updateDueFeeds(int limit) {
+		List<String> ids = getDueFeedIds(limit);
+		return ids.isEmpty() ? 0 : updateFeeds(ids, true);
+	}
+
+	private int updateFeeds(List<String> ids, boolean due) {
 		int counter = 0;
 		long time = System.currentTimeMillis();
+		List<Map<String,Object>> documents = new ArrayList<>();
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(ids.toArray()));
-			for(RqlObject ro : cursor) {
-				List<Object> list = ro.getList();
-				for (Object object : list) {
-					Map<String,Object> m = (Map<String,Object>)object;
-					IFeed feed = buildFeed(m);
-					counter++;
-					if (feed != null) {
-						loadFeedItems(feed);
-					}
-				}
+			documents = getDocuments(r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(ids.toArray())));
+			for (Map<String,Object> m : documents) {
+				cacheFeed(m, null);
 			}
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
+		} finally {
+			releaseConnection();
+		}
+
+		List<ListenableFuture<IFeed>> pending = new ArrayList<>(documents.size());
+		for (Map<String,Object> m : documents) {
+			IFeed feed = buildFeed(m);
+			counter++;
+			if (feed != null) {
+				Pair<Boolean, Boolean> canUpdate = due ? new Pair<Boolean, Boolean>(true, true) : canUpdate(feed);
+				pending.add(virtualThreadFetch ? loadFeedItemsOnVirtualThread(feed, canUpdate) : loadFeedItems(feed, getSaveExecutor(), canUpdate));
+			}
+		}
+		try {
+			Futures.successfulAsList(pending).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LOG.error(e.getMessage(), e);
 		}
 		LOG.info("{} feeds updated in {} ms.", counter, (System.currentTimeMillis() - time));
 		return counter;
@@ -116,73 +444,449 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 
 	@Override
 	public IFeed loadFeedItems(IFeed feed) {
+		try {
+			return loadFeedItems(feed, MoreExecutors.sameThreadExecutor(), null).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return feed;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				LOG.warn("Gave up waiting for the running update of '{}': {}", feed.getUrl(), e.getCause().getMessage());
+			}
+			else {
+				LOG.error("Update of '{}' failed", feed.getUrl(), e.getCause());
+			}
+			return feed;
+		}
+	}
+
+	/**
+	 * Fetches the feed on the calling thread and saves it on the save executor
+	 * @return future completed when the feed and its items are saved
+	 */
+	public ListenableFuture<IFeed> loadFeedItemsAsync(IFeed feed) {
+		return loadFeedItems(feed, getSaveExecutor(), null);
+	}
+
+	private ListenableFuture<IFeed> loadFeedItemsOnVirtualThread(final IFeed feed, final Pair<Boolean, Boolean> canUpdate) {
+		return Futures.dereference(getFetchExecutor().submit(new Callable<ListenableFuture<IFeed>>() {
+			@Override
+			public ListenableFuture<IFeed> call() {
+				return loadFeedItems(feed, MoreExecutors.sameThreadExecutor(), canUpdate);
+			}
+		}));
+	}
+
+	/**
+	 * Concurrent calls for the same canonical url share one fetch and save, see {@link #setFetchWaitTimeout(long)}
+	 * @param canUpdate result of {@link #canUpdate(String)} if already known, null to query it
+	 */
+	private ListenableFuture<IFeed> loadFeedItems(IFeed feed, final ListeningExecutorService saveExecutor, Pair<Boolean, Boolean> canUpdate) {
 		LOG.info("Reading url '{}'", (feed == null ? "NULL" : feed.getUrl()));
 		if (feed == null) {
-			return feed;
+			return Futures.immediateFuture(feed);
 		}
 
-		Pair<Boolean, Boolean> result = canUpdate(feed.getGenId());
+		Pair<Boolean, Boolean> result = canUpdate == null ? canUpdate(feed.getGenId()) : canUpdate;
 		if (result.getValue1() || !result.getValue2()) { // can update || feed is new
-			try {
-				long time = System.currentTimeMillis();
-				feed = fetch(feed);
-				feed = save(feed);
-				saveItems(feed);
-				LOG.info("url '{}' saved in {} ms.", feed.getUrl(), (System.currentTimeMillis() - time));
-			} catch (Exception ex) {
-				feed.setLastFailedFetch(new Date());
-				feed.setLastFailMsg(getStackTraceMessage(ex));
-				feed = save(feed);
-				LOG.error("Failed at reading feed. Message: {}", ex.getMessage(), ex);
+			String key = UrlTools.canonicalUrl(feed.getUrl());
+			if (StringTools.isBlankOrNull(key)) {
+				return fetchAndSave(feed, saveExecutor);
 			}
+			final IFeed toFetch = feed;
+			return singleFlight.run(key, new Callable<ListenableFuture<IFeed>>() {
+				@Override
+				public ListenableFuture<IFeed> call() {
+					return fetchAndSave(toFetch, saveExecutor);
+				}
+			});
 		}
 		else if (!feed.getFeedItems().isEmpty()) {
 			LOG.info("Feed '{}' exists in db, feed contains {} items for this time, skipping..", feed.getName(), feed.getFeedItems().size());
 		}
-		return feed;
+		return Futures.immediateFuture(feed);
+	}
+
+	private ListenableFuture<IFeed> fetchAndSave(IFeed feed, ListeningExecutorService saveExecutor) {
+		final long time = System.currentTimeMillis();
+		final Semaphore fetches = getFetchPermits();
+		Exception failure = null;
+		try {
+			fetches.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Futures.immediateFuture(feed);
+		}
+		final Validators previous = new Validators(feed);
+		try {
+			feed = fetch(feed);
+		} catch (HostBusyException ex) {
+			// local congestion, the feed stays due and is fetched by a later update
+			LOG.info("Skipped '{}': {}", feed.getUrl(), ex.getMessage());
+			return Futures.immediateFuture(feed);
+		} catch (Exception ex) {
+			failure = ex;
+		} finally {
+			fetches.release();
+		}
+		if (failure != null) {
+			return Futures.immediateFuture(saveFailure(feed, failure));
+		}
+		final IFeed fetched = feed;
+		final Semaphore saves = getSavePermits();
+		// taken before submitting, so that fetching waits when the saves fall behind instead of
+		// queueing parsed feeds on the save executor
+		try {
+			saves.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Futures.immediateFuture(fetched);
+		}
+		try {
+			return saveExecutor.submit(new Callable<IFeed>() {
+				@Override
+				public IFeed call() {
+					try {
+						if (fetched.isNotModified() && !StringTools.isBlankOrNull(fetched.getGenId())) {
+							saveFetchTime(fetched);
+							return fetched;
+						}
+						// the new validators are only saved with the items, otherwise the next fetch would skip them
+						Validators validators = new Validators(fetched);
+						previous.applyTo(fetched);
+						IFeed saved = StringTools.isBlankOrNull(fetched.getGenId()) ? save(fetched) : fetched;
+						if (saveFetchedItems(saved) != null) {
+							validators.applyTo(saved);
+						}
+						save(saved);
+						LOG.info("url '{}' saved in {} ms.", saved.getUrl(), (System.currentTimeMillis() - time));
+						return saved;
+					} catch (Exception ex) {
+						return saveFailure(fetched, ex);
+					} finally {
+						saves.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			saves.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes only the fetch timestamps and validators of a feed that wasn't modified since the
+	 * last fetch
+	 */
+	protected void saveFetchTime(IFeed feed) {
+		long time = System.currentTimeMillis();
+		try {
+			RqlConnection r = getConnection();
+			Map<String, Object> values = new HashMap<>();
+			putDate(values, FeedProperty.LAST_OK_FETCH, feed.getLastOkFetch(), DEFAULT_DATE_MIN);
+			putDate(values, FeedProperty.NEXT_FETCH, getNextFetch(feed.getLastOkFetch(), feed.getLastFailedFetch()), null);
+			putNonBlankStr(values, FeedProperty.ETAG, feed.getETag());
+			putNonBlankStr(values, FeedProperty.LAST_MODIFIED, feed.getLastModified());
+			runWrite(r, r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feed.getGenId()).update(values), Operation.SAVE_FEED, null);
+			updateCachedFeed(feed.getGenId(), values);
+			LOG.info("Feed {} not modified, fetch time updated in {} ms", feed.getGenId(), (System.currentTimeMillis() - time));
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+	}
+
+	private IFeed saveFailure(IFeed feed, Exception ex) {
+		feed.setLastFailedFetch(new Date());
+		feed.setLastFailMsg(getStackTraceMessage(ex));
+		LOG.error("Failed at reading feed. Message: {}", ex.getMessage(), ex);
+		return save(feed);
 	}
 
+	/**
+	 * Row count kept in the stats table, see {@link #recountRowsFor(ITable)} for an exact count
+	 */
 	@Override
 	public int getRowCountFor(ITable table) {
+		return getCount(table.getTableName(), table, null);
+	}
+
+	/**
+	 * Item count of a feed kept in the stats table, see {@link #recountItemsFor(String)} for an exact count
+	 */
+	@Override
+	public int getItemCountFor(String feedId) {
+		return getCount(getCounterKey(feedId), FeedItemProperty.TABLE_NAME, feedId);
+	}
+
+	/**
+	 * Counts the rows of the table and stores the count as the new counter value
+	 */
+	@Override
+	public int recountRowsFor(ITable table) {
+		return recount(table.getTableName(), table, null);
+	}
+
+	/**
+	 * Counts the items of the feed and stores the count as the new counter value
+	 */
+	@Override
+	public int recountItemsFor(String feedId) {
+		return recount(getCounterKey(feedId), FeedItemProperty.TABLE_NAME, feedId);
+	}
+
+	private int getCount(String key, ITable table, String feedId) {
+		CachedCount cached = counters.get(key);
+		if (cached != null && System.currentTimeMillis() - cached.readAt < counterMaxAgeMillis) {
+			return cached.count.get();
+		}
+		Integer count;
+		try {
+			count = readCounter(key);
+		} catch (RqlDriverException e) {
+			// a failed read isn't a missing counter, recounting would scan the table on every error
+			int last = cached == null ? 0 : cached.count.get();
+			LOG.warn("Counter {} couldn't be read, returning the last known count {}", key, last);
+			return last;
+		}
+		if (count == null) {
+			return recount(key, table, feedId);
+		}
+		counters.put(key, new CachedCount(count));
+		LOG.debug("Counter {} is {}", key, count);
+		return count;
+	}
+
+	/**
+	 * @return null if there's no counter for the key
+	 */
+	private Integer readCounter(String key) throws RqlDriverException {
+		Integer count = null;
+		try {
+			RqlConnection r = getConnection();
+			RqlCursor cursor = r.run(r.db(getDbName()).table(StatsProperty.TABLE_NAME.toString()).get(key));
+			for(RqlObject o: cursor) {
+				Map<String,Object> m = o.getMap();
+				Object value = m == null ? null : get(m, StatsProperty.COUNT);
+				if (value instanceof Number) {
+					count = ((Number) value).intValue();
+				}
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+			throw e;
+		} finally {
+			releaseConnection();
+		}
+		return count;
+	}
+
+	/**
+	 * Full count of the table, or of the items of the feed, written to the stats table. Writes that
+	 * happen between the count and the insert of a new counter are lost until the next recount.
+	 */
+	private int recount(String key, ITable table, String feedId) {
 		Double count = null;
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(table.getTableName()).count());
+			RqlQuery query = r.db(getDbName()).table(table.getTableName());
+			if (feedId != null) {
+				query = query.get_all(feedId).optargs(feedIdIndex);
+			}
+			RqlCursor cursor = r.run(query.count());
 			for(RqlObject o: cursor) {
 				count = o.getNumber();
 			}
+			if (count != null) {
+				Map<String, Object> values = new HashMap<>();
+				put(values, StatsProperty.GEN_ID, key);
+				put(values, StatsProperty.COUNT, count.intValue());
+				put(values, StatsProperty.UPDATED, System.currentTimeMillis());
+				r.run(r.db(getDbName()).table(StatsProperty.TABLE_NAME.toString()).insert(values).optargs(conflictReplace));
+				counters.put(key, new CachedCount(count.intValue()));
+			}
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
 		} catch (NumberFormatException e) {
 			LOG.error(e.getMessage(), e);
+		} finally {
+			releaseConnection();
 		}
-		LOG.info("Count of objects to table {} is {}", table, count);
+		LOG.info("Count of objects to table {} is {}", key, count);
 		return count == null ? 0 : count.intValue();
 	}
 
-	@Override
-	public List<String> getProperties(ITable property) {
-		long time = System.currentTimeMillis();
-		List<String> ids = new ArrayList<>();
+	/**
+	 * Adds delta to the existing counters with one atomic update, counters that haven't been read
+	 * yet are skipped as their first read counts the rows.
+	 *
+	 * r.table('stats').getAll(...keys).update(function(counter) {
+	 *     return counter.merge({count: counter("count").add(delta), updated: now})
+	 * })
+	 */
+	protected void addToCounters(final int delta, String... keys) {
+		if (delta == 0) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(property.getTableName()).pluck(property.toString()));
-			for(RqlObject o : cursor) {
-				Map<String,Object> m = o.getMap();
-				Object prop = m.get(property.toString());
-				if (prop != null) {
-					ids.add(prop.toString());
+			r.run(r.db(getDbName()).table(StatsProperty.TABLE_NAME.toString()).get_all((Object[]) keys).update(new Function() {
+				@Override
+				public RqlQuery apply(Var counter) {
+					Map<String, Object> values = new HashMap<>();
+					put(values, StatsProperty.COUNT, new GetField(counter, StatsProperty.COUNT.toString()).add(delta));
+					put(values, StatsProperty.UPDATED, now);
+					return counter.merge(values);
 				}
-			}
+			}));
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
+			return;
+		} finally {
+			releaseConnection();
+		}
+		for (String key : keys) {
+			CachedCount cached = counters.get(key);
+			if (cached != null) {
+				cached.count.addAndGet(delta);
+			}
 		}
-		LOG.info("Loaded {} {} {}s in {} ms.", ids.size(), property.getTableName(), property.toString(), (System.currentTimeMillis() - time));
+	}
+
+	/** Stats key of the item counter of a feed */
+	protected String getCounterKey(String feedId) {
+		return FeedItemProperty.TABLE_NAME.toString() + COMPOUND_KEY_SEPARATOR + feedId;
+	}
+
+	@Override
+	public List<String> getProperties(ITable property) {
+		final List<String> ids = new ArrayList<>();
+		getProperties(property, DEFAULT_PAGE_SIZE, new IBatchHandler<String>() {
+			@Override
+			public boolean handle(List<String> batch) {
+				ids.addAll(batch);
+				return true;
+			}
+		});
 		return ids;
 	}
 
+	/**
+	 * Reads the property of every document in primary key order, one page at a time:
+	 * r.table('blog_item').between(lastKey, maxKey, {left_bound: "open"}).orderBy({index: "id"}).limit(1000).pluck("id")
+	 * @return count of values read
+	 */
+	@Override
+	public int getProperties(ITable property, int batchSize, IBatchHandler<String> handler) {
+		long time = System.currentTimeMillis();
+		String id = property.getId().toString();
+		String lastKey = "";
+		int counter = 0;
+		boolean more = true;
+		while (more) {
+			List<String> batch = new ArrayList<>(batchSize);
+			int read = 0;
+			try {
+				RqlConnection r = getConnection();
+				RqlCursor cursor = r.run(r.db(getDbName()).table(property.getTableName()).
+						between(lastKey, MAX_KEY).optargs(keysetRange).order_by().optargs(primaryIndex).limit(batchSize).pluck(id, property.toString()));
+				for(RqlObject o : cursor) {
+					Map<String,Object> m = o.getMap();
+					lastKey = m.get(id).toString();
+					read++;
+					Object prop = m.get(property.toString());
+					if (prop != null) {
+						batch.add(prop.toString());
+					}
+				}
+			} catch (RqlDriverException e) {
+				LOG.error(e.getMessage(), e);
+				handleDriverException(e);
+				read = 0;
+			} finally {
+				releaseConnection();
+			}
+			counter += batch.size();
+			more = read == batchSize;
+			if (!batch.isEmpty() && !handler.handle(batch)) {
+				more = false;
+			}
+		}
+		LOG.info("Loaded {} {} {}s in {} ms.", counter, property.getTableName(), property.toString(), (System.currentTimeMillis() - time));
+		return counter;
+	}
+
+	/**
+	 * Feed document from the metadata cache, read from the db on a miss
+	 * @return null if there's no feed with the id
+	 */
+	protected Map<String,Object> getFeedDocument(String id) throws RqlDriverException {
+		Map<String,Object> m = feedCache.getIfPresent(id);
+		if (m == null) {
+			try {
+				RqlConnection r = getConnection();
+				for(RqlObject o: r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(id))) {
+					m = o.getMap();
+				}
+			} catch (RqlDriverException e) {
+				handleDriverException(e);
+				throw e;
+			} finally {
+				releaseConnection();
+			}
+			if (m != null) {
+				cacheFeed(m, null);
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @param requestedUrl canonical url the document was loaded with, null if loaded by id
+	 */
+	protected void cacheFeed(Map<String,Object> m, String requestedUrl) {
+		Object id = get(m, FeedProperty.GEN_ID);
+		if (id == null) {
+			return;
+		}
+		feedCache.put(id.toString(), m);
+		Object url = get(m, FeedProperty.URL);
+		if (url != null) {
+			feedIdCache.put(UrlTools.canonicalUrl(url.toString()), id.toString());
+		}
+		if (requestedUrl != null) {
+			feedIdCache.put(requestedUrl, id.toString());
+		}
+	}
+
+	/**
+	 * Merges the written fields into the cached document like the db update does
+	 */
+	protected void updateCachedFeed(String id, Map<String,Object> values) {
+		Map<String,Object> cached = feedCache.getIfPresent(id);
+		if (cached != null) {
+			Map<String,Object> merged = new HashMap<>(cached);
+			merged.putAll(values);
+			feedCache.put(id, merged);
+		}
+	}
+
+	/** Hits, misses and evictions of the feed document cache */
+	public CacheStats getFeedCacheStats() {
+		return feedCache.stats();
+	}
+
+	/** Hits, misses and evictions of the canonical url to feed id cache */
+	public CacheStats getFeedUrlCacheStats() {
+		return feedIdCache.stats();
+	}
+
 	@Override
 	public Pair<Boolean, Boolean> canUpdate(final String feedId) {
 		boolean canUpdate = false;
@@ -192,91 +896,199 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 		String lastFailMsg = null;
 		String lastFailResp = null;
 
-		if (!StringTools.isBlankOrNull(feedId)) {
+		if (!StringTools.isBlankOrNull(feedId)) {
+			try {
+				Map<String,Object> m = getFeedDocument(feedId);
+				if (m != null) {
+					lastOkFetch = getDate(m, FeedProperty.LAST_OK_FETCH, DEFAULT_DATE_MIN);
+					lastFailedFetch = getDate(m, FeedProperty.LAST_FAILED_FETCH, DEFAULT_DATE_MAX);
+					lastFailMsg = getStr(m, FeedProperty.LAST_FAIL_MSG, "");
+					lastFailResp = getStr(m, FeedProperty.LAST_FAIL_RESPONSE, null);
+					found = true;
+				}
+
+				if (found) {
+					canUpdate = getNextFetch(lastOkFetch, lastFailedFetch).before(new Date());
+				}
+
+			} catch (RqlDriverException e) {
+				LOG.error(e.getMessage(), e);
+			} catch (NumberFormatException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+
+		if (!found) {
+			LOG.warn("No feeds found with id {}", feedId);
+		}
+		else {
+			LOG.info((canUpdate ? "Can" : "Can't") + " update items for feed {}, fetched: {} (failed {} {} {}) ",
+					feedId, DateTools.formatLongDate(lastOkFetch), DateTools.formatShortDate(lastFailedFetch),
+					StringTools.nullToEmpty(lastFailResp),
+					StringTools.cutToLength(lastFailMsg, 80));
+		}
+		return new Pair<Boolean, Boolean>(canUpdate, found);
+	}
+
+	/**
+	 * Same as {@link #canUpdate(String)} for a feed that was just loaded from the db
+	 */
+	protected Pair<Boolean, Boolean> canUpdate(IFeed feed) {
+		if (StringTools.isBlankOrNull(feed.getGenId())) {
+			return new Pair<Boolean, Boolean>(false, false);
+		}
+		boolean canUpdate = getNextFetch(feed.getLastOkFetch(), feed.getLastFailedFetch()).before(new Date());
+		LOG.info((canUpdate ? "Can" : "Can't") + " update items for feed {}, fetched: {}", feed.getGenId(),
+				DateTools.formatLongDate(feed.getLastOkFetch() == null ? DEFAULT_DATE_MIN : feed.getLastOkFetch()));
+		return new Pair<Boolean, Boolean>(canUpdate, true);
+	}
+
+	/**
+	 * Fetch interval after the last successful fetch, or the failed fetch interval after the last
+	 * failure if that is later
+	 */
+	protected Date getNextFetch(Date lastOkFetch, Date lastFailedFetch) {
+		Date nextFetch = DateTools.addInterval(lastOkFetch == null ? DEFAULT_DATE_MIN : lastOkFetch, fetchInterval);
+		if (lastFailedFetch != null && !DateTools.equalsIgnoreMinsSecs(lastFailedFetch, DEFAULT_DATE_MAX)) {
+			Date nextFailFetch = DateTools.addInterval(lastFailedFetch, failfetchInterval);
+			if (nextFailFetch.after(nextFetch)) {
+				nextFetch = nextFailFetch;
+			}
+		}
+		return nextFetch;
+	}
+
+	/**
+	 * r.table('blog').between(0, r.now().toEpochTime().mul(1000), {index: "nextfetch"}).limit(100).pluck("id")
+	 * 
+	 * nextfetch is written on every save with the intervals in use at that time. Feeds saved
+	 * before it was written are never due until {@link #recomputeNextFetch(boolean)} ran once.
+	 */
+	@Override
+	public List<String> getDueFeedIds(int limit) {
+		long time = System.currentTimeMillis();
+		List<String> ids = new ArrayList<>();
+		try {
+			RqlConnection r = getConnection();
+			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).
+					between(0, System.currentTimeMillis()).optargs(nextFetchIndex).limit(limit).pluck(FeedProperty.GEN_ID.toString()));
+			for(RqlObject o : cursor) {
+				Object id = get(o.getMap(), FeedProperty.GEN_ID);
+				if (id != null) {
+					ids.add(id.toString());
+				}
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+		LOG.info("{} feeds due for update in {} ms.", ids.size(), (System.currentTimeMillis() - time));
+		return ids;
+	}
+
+	/**
+	 * Writes nextfetch computed with the current fetch intervals on the feeds that don't have one,
+	 * or on all feeds after the intervals changed, since a changed interval otherwise only applies
+	 * to a feed once it is saved again. The feeds are read in primary key pages and each page is
+	 * written with one insert(conflict: update) of {id, nextfetch}.
+	 * @param all also the feeds that already have a nextfetch
+	 * @return number of feeds written
+	 */
+	@Override
+	public int recomputeNextFetch(boolean all) {
+		long time = System.currentTimeMillis();
+		String id = FeedProperty.GEN_ID.toString();
+		String lastKey = "";
+		int counter = 0;
+		boolean more = true;
+		while (more) {
+			List<Map<String,Object>> values = new ArrayList<>();
+			int read = 0;
 			try {
 				RqlConnection r = getConnection();
-				RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feedId));
-
-				for(RqlObject o: cursor) {
+				RqlQuery table = r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString());
+				RqlCursor cursor = r.run(table.between(lastKey, MAX_KEY).optargs(keysetRange).order_by().optargs(primaryIndex).limit(bulkBatchSize).
+						pluck(id, FeedProperty.LAST_OK_FETCH.toString(), FeedProperty.LAST_FAILED_FETCH.toString(), FeedProperty.NEXT_FETCH.toString()));
+				for(RqlObject o : cursor) {
 					Map<String,Object> m = o.getMap();
-					lastOkFetch = getDate(m, FeedProperty.LAST_OK_FETCH, DEFAULT_DATE_MIN);
-					lastFailedFetch = getDate(m, FeedProperty.LAST_FAILED_FETCH, DEFAULT_DATE_MAX);
-					lastFailMsg = getStr(m, FeedProperty.LAST_FAIL_MSG, "");
-					lastFailResp = getStr(m, FeedProperty.LAST_FAIL_RESPONSE, null);
-					found = true;
+					lastKey = m.get(id).toString();
+					read++;
+					if (all || get(m, FeedProperty.NEXT_FETCH) == null) {
+						Map<String,Object> feedValues = new HashMap<>();
+						put(feedValues, FeedProperty.GEN_ID, lastKey);
+						putDate(feedValues, FeedProperty.NEXT_FETCH, getNextFetch(getDate(m, FeedProperty.LAST_OK_FETCH, DEFAULT_DATE_MIN),
+								getDate(m, FeedProperty.LAST_FAILED_FETCH, DEFAULT_DATE_MAX)), null);
+						values.add(feedValues);
+					}
 				}
-
-				if (found) {
-					Calendar cal = Calendar.getInstance();
-					cal.setTime(lastOkFetch);
-					cal.set(Calendar.DAY_OF_MONTH, cal.get(Calendar.DAY_OF_MONTH) + fetchInterval[0]);
-					cal.set(Calendar.HOUR_OF_DAY, cal.get(Calendar.HOUR_OF_DAY) + fetchInterval[1]);
-					cal.set(Calendar.MINUTE, cal.get(Calendar.MINUTE) + fetchInterval[2]);
-					canUpdate = cal.getTime().before(new Date());
-
-					if (canUpdate && !DateTools.equalsIgnoreMinsSecs(lastFailedFetch, DEFAULT_DATE_MAX)) {
-						cal.setTime(lastFailedFetch);
-						cal.set(Calendar.DAY_OF_MONTH, cal.get(Calendar.DAY_OF_MONTH) + failfetchInterval[0]);
-						cal.set(Calendar.HOUR_OF_DAY, cal.get(Calendar.HOUR_OF_DAY) + failfetchInterval[1]);
-						cal.set(Calendar.MINUTE, cal.get(Calendar.MINUTE) + failfetchInterval[2]);
-						canUpdate = cal.getTime().before(new Date());
+				if (!values.isEmpty()) {
+					RqlCursor written = runWrite(r, table.insert(values), Operation.MAINTENANCE, conflictUpdate);
+					WriteResult result = written == null ? new WriteResult() : WriteResult.from(written.next().getMap());
+					if (result.getErrors() > 0) {
+						LOG.error("Writing nextfetch failed for {} feeds: {}", result.getErrors(), result.getFirstError());
 					}
+					for (Map<String,Object> feedValues : values) {
+						updateCachedFeed(feedValues.get(id).toString(), feedValues);
+					}
+					counter += values.size() - result.getErrors();
 				}
-
 			} catch (RqlDriverException e) {
 				LOG.error(e.getMessage(), e);
 				handleDriverException(e);
-			} catch (NumberFormatException e) {
-				LOG.error(e.getMessage(), e);
+				read = 0;
+			} finally {
+				releaseConnection();
 			}
+			more = read == bulkBatchSize;
 		}
-
-		if (!found) {
-			LOG.warn("No feeds found with id {}", feedId);
-		}
-		else {
-			LOG.info((canUpdate ? "Can" : "Can't") + " update items for feed {}, fetched: {} (failed {} {} {}) ",
-					feedId, DateTools.formatLongDate(lastOkFetch), DateTools.formatShortDate(lastFailedFetch),
-					StringTools.nullToEmpty(lastFailResp),
-					StringTools.cutToLength(lastFailMsg, 80));
-		}
-		return new Pair<Boolean, Boolean>(canUpdate, found);
+		LOG.info("Wrote nextfetch of {} feeds in {} ms.", counter, (System.currentTimeMillis() - time));
+		return counter;
 	}
 
 	/**
-	 * r.table('blog_item').getAll('cf0c31b6-efe6-4ae3-b383-a94cc5d3feae', {index: "feed_id"}).filter( function(item) {
-	 *     return item("link").match("raibledesigns.com/rd/entry/the_modern_java_web_developer$")
-	 * })
+	 * r.table('blog_item').getAll('cf0c31b6-efe6-4ae3-b383-a94cc5d3feae|raibledesigns.com/rd/entry/the_modern_java_web_developer', {index: "feed_link"})
+	 * 
+	 * Items of feeds that aren't keyed yet, see {@link #backfillItemKeys(List)}, are matched on the
+	 * normalized uri or link while scanning the feed.
 	 */
 	@Override
 	public IFeedItem getExistingFeedItem(final String feedid, String link, String uri, String title) {
 		List<IFeedItem> items = new ArrayList<>();
+		boolean keyed = hasItemKeys(feedid);
 		try {
 			RqlConnection r = getConnection();
-			RqlQuery query = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get_all(feedid).optargs(feedIdIndex);
-			Object filterParam = null;
-			if (!StringTools.isBlankOrNull(uri)) {
-				if (UrlTools.isValidUrl(uri)) {
-					filterParam = getLinkMatch(FeedItemProperty.URI, uri.trim());
-				}
-				else {
-					filterParam = getMap(FeedItemProperty.URI, uri.trim());
+			RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+			List<Map<String,Object>> documents;
+			if (!keyed && (!StringTools.isBlankOrNull(uri) || !StringTools.isBlankOrNull(link))) {
+				String key = !StringTools.isBlankOrNull(uri) ? "uri:" + UrlTools.normalizeLink(uri) : "link:" + UrlTools.normalizeLink(link);
+				documents = new ArrayList<>();
+				for (Map<String,Object> m : getDocuments(r.run(table.get_all(feedid).optargs(feedIdIndex).without(FeedItemProperty.CONTENT.toString())))) {
+					if (getItemKeys(buildFeedItem(m, false)).contains(key)) {
+						documents.add(m);
+					}
 				}
 			}
+			else if (!StringTools.isBlankOrNull(uri)) {
+				documents = getDocuments(r.run(table.get_all(getCompoundKey(feedid, uri)).optargs(feedUriIndex)));
+			}
 			else if (!StringTools.isBlankOrNull(link)) {
-				filterParam = getLinkMatch(FeedItemProperty.LINK, link.trim());
+				documents = getDocuments(r.run(table.get_all(getCompoundKey(feedid, link)).optargs(feedLinkIndex)));
 			}
 			else if (!StringTools.isBlankOrNull(title)) {
-				filterParam = getMap(FeedItemProperty.TITLE, title.trim());
+				documents = new ArrayList<>();
+				RqlCursor cursor = r.run(table.get_all(feedid).optargs(feedIdIndex).filter(getMap(FeedItemProperty.TITLE, title.trim())));
+				for(RqlObject o: cursor) {
+					documents.add(o.getMap());
+				}
 			}
 			else {
 				LOG.error("No search terms for existing feed for '{}' !", feedid);
 				return null;
 			}
 
-			RqlCursor cursor = r.run(query.filter(filterParam));
-			for(RqlObject o: cursor) {
-				Map<String,Object> m = o.getMap();
+			for (Map<String,Object> m : documents) {
 				items.add(buildFeedItem(m, false));
 			}
 			if (items.size() > 1) {
@@ -290,6 +1102,8 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 			handleDriverException(e);
 		} catch (NoSuchElementException | NumberFormatException e) {
 			LOG.error(e.getMessage(), e);
+		} finally {
+			releaseConnection();
 		}
 
 		IFeedItem item = null;
@@ -309,176 +1123,690 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 	@Override
 	public IFeed loadFeed(String url) {
 		IFeed feed = null;
+		String u = UrlTools.trimUrl(url);
+		String canonicalUrl = UrlTools.canonicalUrl(u);
+		String cachedId = feedIdCache.getIfPresent(canonicalUrl);
+		Map<String,Object> cached = cachedId == null ? null : feedCache.getIfPresent(cachedId);
+		if (cached != null) {
+			return buildFeed(cached);
+		}
 		try {
-			String u = UrlTools.trimUrl(url);
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).
-					get_all(u, u.toLowerCase()).optargs(urlIndex));
+			RqlQuery table = r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString());
+			RqlCursor cursor = r.run(deterministicFeedIds ? table.get(getFeedId(u)) : table.get_all(u, u.toLowerCase()).optargs(urlIndex));
 
 			Set<IFeed> feeds = new HashSet<>();
 			for(RqlObject o : cursor) {
 				Map<String,Object> m = o.getMap();
 				feeds.add(buildFeed(m));
+				if (m != null) {
+					cacheFeed(m, canonicalUrl);
+				}
+			}
+			if (feeds.size() > 1) {
+				LOG.error("There shouldn't be more than one feed for '{}'", u);
+			}
+			if (!feeds.isEmpty()) {
+				feed = feeds.iterator().next();
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} catch (NoSuchElementException e) {
+			LOG.error(e.getMessage(), e);
+		} finally {
+			releaseConnection();
+		}
+
+		LOG.info("Loaded feed '{}', '{}' ", (feed == null ? "null" : feed.getGenId()), (feed == null ? "null" : feed.getName()));
+		return feed;
+	}
+
+	/**
+	 * r.table('blog_item').getAll("c3ec41c1-e3eb-48cd-ab8c-b33965d001e2", {index: 'feed_id'}).eqJoin("feed_id", r.table("blog"))
+	 * r.table('blog').getAll("c3ec41c1-e3eb-48cd-ab8c-b33965d001e2").eqJoin("id", r.table("blog_item"), {index: 'feed_id'})
+	 * 
+	 * RqlCursor cursor = r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).
+	 * 	get_all(ids.toArray()).optargs(feedIdIndex).eq_join(FeedItemProperty.FEED_ID.toString(), r.table(FeedProperty.TABLE_NAME.toString())));
+	 */
+	@Override
+	public List<IFeed> loadFeeds(List<String> ids, boolean loadContent) {
+		return loadFeeds(ids, loadContent ? ITEM_FIELDS_ALL : ITEM_FIELDS_WITHOUT_CONTENT);
+	}
+
+	/**
+	 * @param itemFields item fields to transfer, id and feed_id are always included
+	 */
+	@Override
+	public List<IFeed> loadFeeds(List<String> ids, Set<FeedItemProperty> itemFields) {
+		return twoPhaseFeedLoad ? loadFeedsTwoPhase(ids, itemFields) : loadFeedsJoined(ids, itemFields);
+	}
+
+	/**
+	 * Feeds and items in two queries, each feed document is transferred once:
+	 * r.table('blog').getAll(...ids)
+	 * r.table('blog_item').getAll(...ids, {index: 'feed_id'}).pluck("id", "feed_id", "title")
+	 */
+	protected List<IFeed> loadFeedsTwoPhase(List<String> ids, Set<FeedItemProperty> itemFields) {
+		long time = System.currentTimeMillis();
+		Map<String, IFeed> feedMap = new HashMap<>();
+		boolean loadContent = itemFields.contains(FeedItemProperty.CONTENT);
+		int itemCounter = 0;
+		try {
+			RqlConnection r = getConnection();
+			for (Map<String,Object> m : getDocuments(r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(ids.toArray())))) {
+				IFeed feed = buildFeed(m);
+				feedMap.put(feed.getGenId(), feed);
+			}
+			if (!feedMap.isEmpty()) {
+				RqlQuery query = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get_all(feedMap.keySet().toArray()).optargs(feedIdIndex);
+				if (!itemFields.containsAll(ITEM_FIELDS_ALL)) {
+					query = query.pluck(getFieldNames(itemFields).toArray());
+				}
+				for (Map<String,Object> m : getDocuments(r.run(query))) {
+					IFeed feed = feedMap.get(getStr(m, FeedItemProperty.FEED_ID, ""));
+					if (feed != null) {
+						feed.getFeedItems().add(buildFeedItem(m, loadContent));
+						itemCounter++;
+					}
+				}
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+
+		List<IFeed> feeds = new ArrayList<>(feedMap.values());
+		LOG.info("Loaded {} feeds with {} items, with ids '{}' in {} ms.", feeds.size(), itemCounter, ids.toString(), (System.currentTimeMillis() - time));
+		return feeds;
+	}
+
+	/**
+	 * r.table('blog').getAll(...ids).eqJoin("id", r.table("blog_item"), {index: 'feed_id'}).pluck({left: true, right: ["id", "feed_id", "title"]})
+	 */
+	protected List<IFeed> loadFeedsJoined(List<String> ids, Set<FeedItemProperty> itemFields) {
+		long time = System.currentTimeMillis();
+		Map<String, IFeed> feedMap = new HashMap<>();
+		boolean loadContent = itemFields.contains(FeedItemProperty.CONTENT);
+		try {
+			RqlConnection r = getConnection();
+			RqlQuery query = r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).
+					get_all(ids.toArray()).eq_join(FeedProperty.GEN_ID.toString(), r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString())).optargs(feedIdIndex);
+			if (!itemFields.containsAll(ITEM_FIELDS_ALL)) {
+				Map<String,Object> projection = new HashMap<>();
+				projection.put(LEFT_JOIN, true);
+				projection.put(RIGHT_JOIN, getFieldNames(itemFields));
+				query = query.pluck(projection);
+			}
+			RqlCursor cursor = r.run(query);
+
+			for(RqlObject o : cursor) {
+				List<Object> list = o.getList();
+				for (Object object : list) {
+					Map<String,Object> m = (Map<String,Object>)object;
+					Map<String,Object> left = (Map<java.lang.String, Object>) m.get(LEFT_JOIN);
+					Map<String,Object> right = (Map<java.lang.String, Object>) m.get(RIGHT_JOIN);
+
+					IFeed feed = null;
+					String key = left.get(FeedProperty.GEN_ID.toString()).toString();
+					if (!feedMap.containsKey(key)) {
+						feed = buildFeed(left);
+						feedMap.put(feed.getGenId(), feed);
+					}
+					else {
+						feed = feedMap.get(key);
+					}
+					feed.getFeedItems().add(buildFeedItem(right, loadContent));
+				}
+			}
+
+			List<String> notJoined = new ArrayList<>();
+			for (String id : ids) {
+				if (!feedMap.containsKey(id)) {
+					notJoined.add(id);
+				}
+			}
+			if (!notJoined.isEmpty()) {
+				cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(notJoined.toArray()));
+				for(RqlObject o: cursor) {
+					List<Object> list = o.getList();
+					for (Object object : list) {
+						Map<String,Object> m = (Map<String,Object>)object;
+						IFeed feed = buildFeed(m);
+						feedMap.put(feed.getGenId(), feed);
+					}
+				}
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+
+		List<IFeed> feeds = new ArrayList<>();
+		for (String key : feedMap.keySet()) {
+			feeds.add(feedMap.get(key));
+		}
+		LOG.info("Loaded {} feeds, with ids '{}' in {} ms.", feeds.size(), ids.toString(), (System.currentTimeMillis() - time));
+		return feeds;
+	}
+
+	@Override
+	public IFeed save(IFeed feed) {
+		long time = System.currentTimeMillis();
+		try {
+			RqlConnection r = getConnection();
+			Map<String, Object> values = new HashMap<>();
+			putStr(values, FeedProperty.NAME, feed.getName());
+			putStr(values, FeedProperty.URL, UrlTools.trimUrl(feed.getUrl()));
+			putNonBlankStr(values, FeedProperty.URI, feed.getUri());
+			putNonBlankStr(values, FeedProperty.DESCRIPTION, feed.getDescription());
+			putNonBlankStr(values, FeedProperty.AUTHOR, feed.getAuthor());
+			putNonBlankStr(values, FeedProperty.COPYRIGHT, feed.getCopyright());
+			putNonBlankStr(values, FeedProperty.LANGUAGE, feed.getLanguage());
+			putNonBlankStr(values, FeedProperty.IMAGE_URL, feed.getImageUrl());
+			putNonBlankStr(values, FeedProperty.CATEGORIES, feed.getCategories());
+			putDate(values, FeedProperty.LAST_FAILED_FETCH, feed.getLastFailedFetch(), DEFAULT_DATE_MAX);
+			putNonBlankStr(values, FeedProperty.LAST_FAIL_MSG, feed.getLastFailMsg());
+			putNonBlankStr(values, FeedProperty.LAST_FAIL_RESPONSE, feed.getLastFailResponseCode());
+			putDate(values, FeedProperty.LAST_OK_FETCH, feed.getLastOkFetch(), DEFAULT_DATE_MIN);
+			putDate(values, FeedProperty.NEXT_FETCH, getNextFetch(feed.getLastOkFetch(), feed.getLastFailedFetch()), null);
+			putNonBlankStr(values, FeedProperty.ETAG, feed.getETag());
+			putNonBlankStr(values, FeedProperty.LAST_MODIFIED, feed.getLastModified());
+			putNonBlankStr(values, FeedProperty.BODY_HASH, feed.getBodyHash());
+			putDate(values, FeedProperty.WATERMARK, feed.getWatermark(), null);
+			if (feed.getItemCount() >= 0) {
+				put(values, FeedProperty.ITEM_COUNT, feed.getItemCount());
+			}
+			if (feed.getRecentFingerprints() != null && !feed.getRecentFingerprints().isEmpty()) {
+				put(values, FeedProperty.RECENT_FINGERPRINTS, feed.getRecentFingerprints());
+			}
+			if (StringTools.isBlankOrNull(feed.getGenId()) && deterministicFeedIds) {
+				String id = getFeedId(feed.getUrl());
+				long currentTime = System.currentTimeMillis();
+				put(values, FeedProperty.GEN_ID, id);
+				put(values, FeedProperty.CREATED, currentTime);
+				put(values, FeedProperty.UPDATED, currentTime);
+				put(values, FeedProperty.ITEM_KEYS, true);
+				RqlCursor cursor = r.run(withPolicy(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).insert(values), Operation.SAVE_FEED, null));
+				WriteResult result = WriteResult.from(cursor.next().getMap());
+				feed.setGenId(id);
+				if (result.getInserted() > 0) {
+					addToCounters(1, FeedProperty.TABLE_NAME.toString());
+					cacheFeed(values, null);
+					LOG.info("Inserted feed {} in {} ms", id, (System.currentTimeMillis() - time));
+				}
+				else {
+					values.remove(FeedProperty.CREATED.toString());
+					values.remove(FeedProperty.ITEM_KEYS.toString());
+					runWrite(r, r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(id).update(values), Operation.SAVE_FEED, null);
+					updateCachedFeed(id, values);
+					LOG.info("Feed {} already existed, updated in {} ms", id, (System.currentTimeMillis() - time));
+				}
+			}
+			else if (StringTools.isBlankOrNull(feed.getGenId())) {
+				long currentTime = System.currentTimeMillis();
+				put(values, FeedProperty.CREATED, currentTime);
+				put(values, FeedProperty.UPDATED, currentTime);
+				put(values, FeedProperty.ITEM_KEYS, true);
+				RqlCursor cursor = r.run(withPolicy(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).insert(values), Operation.SAVE_FEED, null));
+				List<String> id = cursor.next().getAs(ATTR_GENERATED_KEYS);
+				feed.setGenId(id.get(0));
+				addToCounters(1, FeedProperty.TABLE_NAME.toString());
+				put(values, FeedProperty.GEN_ID, feed.getGenId());
+				cacheFeed(values, null);
+				LOG.info("Inserted feed {} in {} ms", id, (System.currentTimeMillis() - time));
+			}
+			else {
+				put(values, FeedProperty.UPDATED, System.currentTimeMillis());
+				runWrite(r, r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feed.getGenId()).update(values), Operation.SAVE_FEED, null);
+				updateCachedFeed(feed.getGenId(), values);
+				LOG.info("Updated feed {} in {} ms", feed.getGenId(), (System.currentTimeMillis() - time));
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+		return feed;
+	}
+
+	/**
+	 * Saves the new entries of the feed and updates its ingestion state, see {@link #saveFetchedItems(IFeed)}
+	 * @return empty if the items couldn't be written
+	 */
+	@Override
+	public List<IFeedItem> saveItems(IFeed feed) {
+		List<IFeedItem> items = saveFetchedItems(feed);
+		return items == null ? new ArrayList<IFeedItem>() : items;
+	}
+
+	/**
+	 * Saves the new entries of the feed and updates its ingestion state, which is left as it was
+	 * if the items couldn't be written. The save methods return null in that case.
+	 * @return null if the items couldn't be written
+	 */
+	protected List<IFeedItem> saveFetchedItems(IFeed feed) {
+		List<IFeedItem> fetched = new ArrayList<>(feed.getNewFeedItems());
+		dropKnownEntries(feed);
+		List<IFeedItem> items;
+		if (feed.getNewFeedItems().isEmpty()) {
+			items = new ArrayList<>();
+		}
+		else if (deterministicItemIds) {
+			items = saveItemsWithDerivedIds(feed);
+		}
+		else {
+			items = batchItemWrites ? saveItemsBatched(feed) : saveItemsOneByOne(feed);
+		}
+		if (items == null) {
+			return null;
+		}
+		updateIngestState(feed, fetched, items.size());
+		return items;
+	}
+
+	/**
+	 * Removes the new entries whose fingerprint was seen in a recent fetch and, if the watermark
+	 * is enabled, the dated entries at or below the feed's watermark
+	 */
+	protected int dropKnownEntries(IFeed feed) {
+		Set<String> recent = feed.getRecentFingerprints() == null ? Collections.<String>emptySet() : new HashSet<>(feed.getRecentFingerprints());
+		Date watermark = ingestWatermark ? feed.getWatermark() : null;
+		int dropped = 0;
+		for (Iterator<IFeedItem> it = feed.getNewFeedItems().iterator(); it.hasNext();) {
+			IFeedItem item = it.next();
+			boolean dated = item.getPublishDate() != null && item.getPublishDate().after(DEFAULT_DATE_MIN);
+			if (recent.contains(getFingerprint(item)) || (dated && watermark != null && !item.getPublishDate().after(watermark))) {
+				it.remove();
+				dropped++;
+			}
+		}
+		if (dropped > 0) {
+			LOG.info("Dropped {} known entries of feed {}, watermark {}", dropped, feed.getGenId(), watermark);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Moves the watermark to the newest fetched entry, adds the saved items to the item count and
+	 * keeps the fingerprints of the fetched entries. The next save of the feed writes them.
+	 */
+	protected void updateIngestState(IFeed feed, List<IFeedItem> fetched, int inserted) {
+		Date watermark = feed.getWatermark();
+		List<String> recent = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		for (IFeedItem item : fetched) {
+			if (item.getPublishDate() != null && item.getPublishDate().after(DEFAULT_DATE_MIN)
+					&& (watermark == null || item.getPublishDate().after(watermark))) {
+				watermark = item.getPublishDate();
+			}
+			if (seen.add(getFingerprint(item))) {
+				recent.add(getFingerprint(item));
+			}
+		}
+		if (feed.getRecentFingerprints() != null) {
+			for (String fingerprint : feed.getRecentFingerprints()) {
+				if (seen.add(fingerprint)) {
+					recent.add(fingerprint);
+				}
+			}
+		}
+		feed.setWatermark(watermark);
+		feed.setRecentFingerprints(recent.size() > recentFingerprintLimit ? new ArrayList<>(recent.subList(0, recentFingerprintLimit)) : recent);
+		feed.setItemCount(feed.getItemCount() < 0 ? getItemCountFor(feed.getGenId()) : feed.getItemCount() + inserted);
+	}
+
+	/**
+	 * Writes the items with their derived ids in one insert(conflict: update). The fingerprints of
+	 * the stored items are read first, unchanged items aren't sent and existing items keep their
+	 * created date. The counters use the inserted count of the reply, which stays right if an item
+	 * was inserted by another writer in the meantime.
+	 */
+	protected List<IFeedItem> saveItemsWithDerivedIds(IFeed feed) {
+		long time = System.currentTimeMillis();
+		List<IFeedItem> items = new ArrayList<>();
+		int insertedCount = 0;
+		try {
+			RqlConnection r = getConnection();
+			Map<String, IFeedItem> itemsById = new LinkedHashMap<>();
+			for (IFeedItem item : feed.getNewFeedItems()) {
+				String id = getItemId(feed.getGenId(), item);
+				if (id == null) {
+					LOG.error("No search terms for existing feed for '{}' !", feed.getGenId());
+					continue;
+				}
+				if (!itemsById.containsKey(id)) {
+					itemsById.put(id, item);
+				}
+				item.setGenId(id);
+				feed.getFeedItems().add(item);
 			}
-			if (feeds.size() > 1) {
-				LOG.error("There shouldn't be more than one feed for '{}'", u);
+
+			RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+			Map<String, String> fingerprints = new HashMap<>();
+			if (!itemsById.isEmpty()) {
+				RqlCursor cursor = r.run(table.get_all(itemsById.keySet().toArray()).pluck(FeedItemProperty.GEN_ID.toString(), FeedItemProperty.FINGERPRINT.toString()));
+				for (Map<String,Object> m : getDocuments(cursor)) {
+					fingerprints.put(getStr(m, FeedItemProperty.GEN_ID, ""), getStr(m, FeedItemProperty.FINGERPRINT, null));
+				}
 			}
-			if (!feeds.isEmpty()) {
-				feed = feeds.iterator().next();
+			List<Map<String, Object>> values = new ArrayList<>();
+			List<String> inserted = new ArrayList<>();
+			List<String> updated = new ArrayList<>();
+			for (Map.Entry<String, IFeedItem> entry : itemsById.entrySet()) {
+				String id = entry.getKey();
+				boolean exists = fingerprints.containsKey(id);
+				if (exists && areEquals(getFingerprint(entry.getValue()), fingerprints.get(id))) {
+					continue;
+				}
+				Map<String, Object> itemValues = createMap(entry.getValue(), feed.getGenId());
+				put(itemValues, FeedItemProperty.GEN_ID, id);
+				if (exists) {
+					updated.add(id);
+				}
+				else {
+					put(itemValues, FeedItemProperty.CREATED, System.currentTimeMillis());
+					inserted.add(id);
+				}
+				values.add(itemValues);
+			}
+
+			if (!values.isEmpty()) {
+				RqlCursor cursor = r.run(withPolicy(table.insert(values), Operation.SAVE_ITEMS, conflictUpdate));
+				WriteResult result = WriteResult.from(cursor.next().getMap());
+				insertedCount = result.getInserted();
+				if (result.getErrors() > 0) {
+					throw new RqlDriverException("Failed to write " + result.getErrors() + " of " + values.size()
+							+ " items of feed " + feed.getGenId() + ": " + result.getFirstError());
+				}
 			}
+			for (String id : inserted) {
+				items.add(itemsById.get(id));
+			}
+			LOG.info("Inserted {} Updated {} of {}. New: '{}' Updated: '{}' in {} ms", inserted.size(), updated.size(),
+					feed.getFeedItems().size(), inserted.toString(), updated.toString(), (System.currentTimeMillis() - time));
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
-		} catch (NoSuchElementException e) {
-			LOG.error(e.getMessage(), e);
+			items = null;
+		} finally {
+			feed.getNewFeedItems().clear();
+			releaseConnection();
 		}
+		addToCounters(insertedCount, FeedItemProperty.TABLE_NAME.toString(), getCounterKey(feed.getGenId()));
+		return items;
+	}
 
-		LOG.info("Loaded feed '{}', '{}' ", (feed == null ? "null" : feed.getGenId()), (feed == null ? "null" : feed.getName()));
-		return feed;
+	/**
+	 * Hash of the canonical feed url
+	 */
+	protected String getFeedId(String url) {
+		return HashTools.hash(UrlTools.canonicalUrl(url));
 	}
 
 	/**
-	 * r.table('blog_item').getAll("c3ec41c1-e3eb-48cd-ab8c-b33965d001e2", {index: 'feed_id'}).eqJoin("feed_id", r.table("blog"))
-	 * r.table('blog').getAll("c3ec41c1-e3eb-48cd-ab8c-b33965d001e2").eqJoin("id", r.table("blog_item"), {index: 'feed_id'})
-	 * 
-	 * RqlCursor cursor = r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).
-	 * 	get_all(ids.toArray()).optargs(feedIdIndex).eq_join(FeedItemProperty.FEED_ID.toString(), r.table(FeedProperty.TABLE_NAME.toString())));
+	 * Hash of the feed id and the item key: uri, link or title with the publish date
 	 */
-	@Override
-	public List<IFeed> loadFeeds(List<String> ids, boolean loadContent) {
+	protected String getItemId(String feedId, IFeedItem item) {
+		String key = getItemKey(item);
+		if (key == null) {
+			return null;
+		}
+		if (StringTools.isBlankOrNull(item.getUri()) && StringTools.isBlankOrNull(item.getLink()) && item.getPublishDate() != null) {
+			key += COMPOUND_KEY_SEPARATOR + item.getPublishDate().getTime();
+		}
+		return HashTools.hash(feedId + COMPOUND_KEY_SEPARATOR + key);
+	}
+
+	/**
+	 * Reads the existing items of the feed once, resolves new and changed items in memory and
+	 * writes them with one array insert and one batched update, both in flight at the same time.
+	 * The connection is released before waiting for the writes, they run on connections of their own.
+	 */
+	protected List<IFeedItem> saveItemsBatched(IFeed feed) {
 		long time = System.currentTimeMillis();
-		Map<String, IFeed> feedMap = new HashMap<>();
+		List<IFeedItem> items = new ArrayList<>();
+		int insertedCount = 0;
+		List<IFeedItem> newItems = new ArrayList<>();
+		List<Pair<IFeedItem, IFeedItem>> sameAsNew = new ArrayList<>();
+		List<String> updated = new ArrayList<>(feed.getNewFeedItems().size());
+		ListenableFuture<RqlCursor> insertResult = null;
+		ListenableFuture<RqlCursor> updateResult = null;
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).
-					get_all(ids.toArray()).eq_join(FeedProperty.GEN_ID.toString(), r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString())).optargs(feedIdIndex));
-
-			for(RqlObject o : cursor) {
-				List<Object> list = o.getList();
-				for (Object object : list) {
-					Map<String,Object> m = (Map<String,Object>)object;
-					Map<String,Object> left = (Map<java.lang.String, Object>) m.get(LEFT_JOIN);
-					Map<String,Object> right = (Map<java.lang.String, Object>) m.get(RIGHT_JOIN);
-
-					IFeed feed = null;
-					String key = left.get(FeedProperty.GEN_ID.toString()).toString();
-					if (!feedMap.containsKey(key)) {
-						feed = buildFeed(left);
-						feedMap.put(feed.getGenId(), feed);
-					}
-					else {
-						feed = feedMap.get(key);
+			Map<String, IFeedItem> existingItems = new HashMap<>();
+			boolean keyed = hasItemKeys(feed.getGenId()) || backfillItemKeys(feed.getGenId()) >= 0;
+			RqlCursor cursor = r.run(getExistingItemsQuery(r, feed, keyed));
+			for (Map<String,Object> m : getDocuments(cursor)) {
+				IFeedItem existingItem = buildFeedItem(m, false);
+				for (String key : getItemKeys(existingItem)) {
+					IFeedItem previous = existingItems.get(key);
+					if (previous == null || existingItem.getCreatedDate().after(previous.getCreatedDate())) {
+						existingItems.put(key, existingItem);
 					}
-					feed.getFeedItems().add(buildFeedItem(right, loadContent));
 				}
 			}
 
-			List<String> notJoined = new ArrayList<>();
-			for (String id : ids) {
-				if (!feedMap.containsKey(id)) {
-					notJoined.add(id);
+			List<Map<String, Object>> insertValues = new ArrayList<>();
+			List<Map<String, Object>> updateValues = new ArrayList<>();
+			Map<String, IFeedItem> newItemsByKey = new HashMap<>();
+			for (IFeedItem item : feed.getNewFeedItems()) {
+				String key = getItemKey(item);
+				if (key == null) {
+					LOG.error("No search terms for existing feed for '{}' !", feed.getGenId());
 				}
-			}
-			if (!notJoined.isEmpty()) {
-				cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(notJoined.toArray()));
-				for(RqlObject o: cursor) {
-					List<Object> list = o.getList();
-					for (Object object : list) {
-						Map<String,Object> m = (Map<String,Object>)object;
-						IFeed feed = buildFeed(m);
-						feedMap.put(feed.getGenId(), feed);
+				final IFeedItem existingItem = key == null ? null : existingItems.get(key);
+				if (existingItem == null) {
+					IFeedItem pending = key == null ? null : newItemsByKey.get(key);
+					if (pending == null) {
+						if (key != null) {
+							newItemsByKey.put(key, item);
+						}
+						newItems.add(item);
+						insertValues.add(createMap(item, feed.getGenId()));
+					}
+					else {
+						sameAsNew.add(new Pair<IFeedItem, IFeedItem>(item, pending));
 					}
+					continue;
+				}
+				if (isChanged(item, existingItem)) {
+					Map<String, Object> values = createMap(item, feed.getGenId());
+					put(values, FeedItemProperty.GEN_ID, existingItem.getGenId());
+					updateValues.add(values);
+					updated.add(existingItem.getGenId());
 				}
+				item.setGenId(existingItem.getGenId());
+				feed.getFeedItems().add(item);
 			}
+
+			RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+			insertResult = insertValues.isEmpty() ? null : runAsync(withPolicy(table.insert(insertValues), Operation.SAVE_ITEMS, null));
+			updateResult = updateValues.isEmpty() ? null : runAsync(withPolicy(table.insert(updateValues), Operation.SAVE_ITEMS, conflictUpdate));
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
+			return null;
+		} finally {
+			feed.getNewFeedItems().clear();
+			releaseConnection();
 		}
 
-		List<IFeed> feeds = new ArrayList<>();
-		for (String key : feedMap.keySet()) {
-			feeds.add(feedMap.get(key));
+		try {
+			List<String> inserted = new ArrayList<>(newItems.size());
+			if (insertResult != null) {
+				Map<String, Object> result = getResult(insertResult).next().getMap();
+				WriteResult insertCounts = WriteResult.from(result);
+				insertedCount = insertCounts.getInserted();
+				List<String> ids = getGeneratedKeys(result);
+				if (insertCounts.getErrors() > 0 || ids.size() != newItems.size()) {
+					throw new RqlDriverException("Inserted " + insertCounts.getInserted() + " of " + newItems.size()
+							+ " items of feed " + feed.getGenId() + ": " + insertCounts.getFirstError());
+				}
+				for (int i = 0; i < newItems.size(); i++) {
+					IFeedItem item = newItems.get(i);
+					item.setGenId(ids.get(i));
+					inserted.add(item.getGenId());
+					items.add(item);
+					feed.getFeedItems().add(item);
+				}
+			}
+			for (Pair<IFeedItem, IFeedItem> same : sameAsNew) {
+				same.getValue1().setGenId(same.getValue2().getGenId());
+				feed.getFeedItems().add(same.getValue1());
+			}
+			if (updateResult != null) {
+				getResult(updateResult);
+			}
+			LOG.info("Inserted {} Updated {} of {}. New: '{}' Updated: '{}' in {} ms", inserted.size(), updated.size(),
+					feed.getFeedItems().size(), inserted.toString(), updated.toString(), (System.currentTimeMillis() - time));
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			items = null;
 		}
-		LOG.info("Loaded {} feeds, with ids '{}' in {} ms.", feeds.size(), ids.toString(), (System.currentTimeMillis() - time));
-		return feeds;
+		addToCounters(insertedCount, FeedItemProperty.TABLE_NAME.toString(), getCounterKey(feed.getGenId()));
+		return items;
 	}
 
-	@Override
-	public IFeed save(IFeed feed) {
-		long time = System.currentTimeMillis();
-		try {
-			RqlConnection r = getConnection();
-			Map<String, Object> values = new HashMap<>();
-			putStr(values, FeedProperty.NAME, feed.getName());
-			putStr(values, FeedProperty.URL, UrlTools.trimUrl(feed.getUrl()));
-			putNonBlankStr(values, FeedProperty.URI, feed.getUri());
-			putNonBlankStr(values, FeedProperty.DESCRIPTION, feed.getDescription());
-			putNonBlankStr(values, FeedProperty.AUTHOR, feed.getAuthor());
-			putNonBlankStr(values, FeedProperty.COPYRIGHT, feed.getCopyright());
-			putNonBlankStr(values, FeedProperty.LANGUAGE, feed.getLanguage());
-			putNonBlankStr(values, FeedProperty.IMAGE_URL, feed.getImageUrl());
-			putNonBlankStr(values, FeedProperty.CATEGORIES, feed.getCategories());
-			putDate(values, FeedProperty.LAST_FAILED_FETCH, feed.getLastFailedFetch(), DEFAULT_DATE_MAX);
-			putNonBlankStr(values, FeedProperty.LAST_FAIL_MSG, feed.getLastFailMsg());
-			putNonBlankStr(values, FeedProperty.LAST_FAIL_RESPONSE, feed.getLastFailResponseCode());
-			putDate(values, FeedProperty.LAST_OK_FETCH, feed.getLastOkFetch(), DEFAULT_DATE_MIN);
-			if (StringTools.isBlankOrNull(feed.getGenId())) {
-				long currentTime = System.currentTimeMillis();
-				put(values, FeedProperty.CREATED, currentTime);
-				put(values, FeedProperty.UPDATED, currentTime);
-				RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).insert(values));
-				List<String> id = cursor.next().getAs(ATTR_GENERATED_KEYS);
-				feed.setGenId(id.get(0));
-				LOG.info("Inserted feed {} in {} ms", id, (System.currentTimeMillis() - time));
+	/**
+	 * Generated keys of an insert in the order of the inserted documents
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> getGeneratedKeys(Map<String, Object> result) {
+		Object keys = result == null ? null : result.get(ATTR_GENERATED_KEYS);
+		return keys instanceof List ? (List<String>) keys : Collections.<String>emptyList();
+	}
+
+	/**
+	 * Exact index hits on feed_uri and feed_link for the new items, the feed is scanned only if
+	 * some of the items have nothing but a title or the items of the feed aren't keyed yet.
+	 */
+	private RqlQuery getExistingItemsQuery(RqlConnection r, IFeed feed, boolean keyed) {
+		RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+		Set<String> uriKeys = new HashSet<>();
+		Set<String> linkKeys = new HashSet<>();
+		boolean titleOnly = false;
+		for (IFeedItem item : feed.getNewFeedItems()) {
+			if (!StringTools.isBlankOrNull(item.getUri())) {
+				uriKeys.add(getCompoundKey(feed.getGenId(), item.getUri()));
+			}
+			else if (!StringTools.isBlankOrNull(item.getLink())) {
+				linkKeys.add(getCompoundKey(feed.getGenId(), item.getLink()));
 			}
 			else {
-				put(values, FeedProperty.UPDATED, System.currentTimeMillis());
-				r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feed.getGenId()).update(values));
-				LOG.info("Updated feed {} in {} ms", feed.getGenId(), (System.currentTimeMillis() - time));
+				titleOnly = true;
 			}
-		} catch (RqlDriverException e) {
-			LOG.error(e.getMessage(), e);
-			handleDriverException(e);
 		}
-		return feed;
+		if (!keyed || titleOnly || (uriKeys.isEmpty() && linkKeys.isEmpty())) {
+			return table.get_all(feed.getGenId()).optargs(feedIdIndex).without(FeedItemProperty.CONTENT.toString());
+		}
+		RqlQuery query = null;
+		if (!uriKeys.isEmpty()) {
+			query = table.get_all(uriKeys.toArray()).optargs(feedUriIndex);
+		}
+		if (!linkKeys.isEmpty()) {
+			RqlQuery linkQuery = table.get_all(linkKeys.toArray()).optargs(feedLinkIndex);
+			query = query == null ? linkQuery : query.union(linkQuery);
+		}
+		return query.without(FeedItemProperty.CONTENT.toString());
 	}
 
-	@Override
-	public List<IFeedItem> saveItems(IFeed feed) {
+	/**
+	 * Looks up each item, the inserts and updates are sent without waiting for each reply. The
+	 * connection is released before waiting for the writes, they run on connections of their own.
+	 */
+	protected List<IFeedItem> saveItemsOneByOne(IFeed feed) {
 		long time = System.currentTimeMillis();
 		List<IFeedItem> items = new ArrayList<>();
+		int insertedCount = 0;
+		RqlDriverException failure = null;
+		List<String> inserted = new ArrayList<>(feed.getFeedItems().size());
+		List<String> updated = new ArrayList<>(feed.getFeedItems().size());
+		List<Pair<IFeedItem, ListenableFuture<RqlCursor>>> inserts = new ArrayList<>();
+		List<ListenableFuture<RqlCursor>> updates = new ArrayList<>();
+		List<Pair<IFeedItem, IFeedItem>> sameAsNew = new ArrayList<>();
+		if (!hasItemKeys(feed.getGenId())) {
+			backfillItemKeys(feed.getGenId());
+		}
 		try {
 			RqlConnection r = getConnection();
-			List<String> inserted = new ArrayList<>(feed.getFeedItems().size());
-			List<String> updated = new ArrayList<>(feed.getFeedItems().size());
+			RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+			Map<String, IFeedItem> newItemsByKey = new HashMap<>();
 			for (IFeedItem item : feed.getNewFeedItems()) {
+				String key = getItemKey(item);
+				if (key != null && newItemsByKey.containsKey(key)) {
+					sameAsNew.add(new Pair<IFeedItem, IFeedItem>(item, newItemsByKey.get(key)));
+					continue;
+				}
 				Map<String, Object> values = createMap(item, feed.getGenId());
 				final IFeedItem existingItem = getExistingFeedItem(feed.getGenId(), item.getLink(), item.getUri(), item.getTitle());
 				if (existingItem == null) {
-					RqlCursor cursor = r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).insert(values));
-					List<String> id = cursor.next().getAs(ATTR_GENERATED_KEYS);
-					item.setGenId(id.get(0));
-					inserted.add(item.getGenId());
-					items.add(item);
+					if (key != null) {
+						newItemsByKey.put(key, item);
+					}
+					inserts.add(new Pair<IFeedItem, ListenableFuture<RqlCursor>>(item, runAsync(withPolicy(table.insert(values), Operation.SAVE_ITEMS, null))));
+					continue;
 				}
-				else if (DateTools.isFirstAfterSecond(item.getUpdatedDate(), existingItem.getUpdatedDate())) {
-					r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get(existingItem.getGenId()).update(values));
-					item.setGenId(existingItem.getGenId());
+				else if (isChanged(item, existingItem)) {
+					updates.add(runAsync(withPolicy(table.get(existingItem.getGenId()).update(values), Operation.SAVE_ITEMS, null)));
 					updated.add(existingItem.getGenId());
 				}
-				else {
-					item.setGenId(existingItem.getGenId());
-				}
+				item.setGenId(existingItem.getGenId());
 				feed.getFeedItems().add(item);
 			}
-			LOG.info("Inserted {} Updated {} of {}. New: '{}' Updated: '{}' in {} ms", inserted.size(), updated.size(),
-					feed.getFeedItems().size(), inserted.toString(), updated.toString(), (System.currentTimeMillis() - time));
 		} catch (RqlDriverException e) {
-			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
+			failure = e;
 		} finally {
 			feed.getNewFeedItems().clear();
+			releaseConnection();
 		}
+
+		// writes sent before a failure are still waited for to keep the counters right
+		for (Pair<IFeedItem, ListenableFuture<RqlCursor>> insert : inserts) {
+			IFeedItem item = insert.getValue1();
+			Map<String, Object> result;
+			try {
+				result = getResult(insert.getValue2()).next().getMap();
+			} catch (RqlDriverException e) {
+				failure = failure == null ? e : failure;
+				continue;
+			}
+			WriteResult insertCounts = WriteResult.from(result);
+			insertedCount += insertCounts.getInserted();
+			List<String> id = getGeneratedKeys(result);
+			if (insertCounts.getErrors() > 0 || id.isEmpty()) {
+				failure = failure == null ? new RqlDriverException("Failed to insert item '" + item.getLink() + "' of feed " + feed.getGenId() + ": " + insertCounts.getFirstError()) : failure;
+				continue;
+			}
+			item.setGenId(id.get(0));
+			inserted.add(item.getGenId());
+			items.add(item);
+			feed.getFeedItems().add(item);
+		}
+		for (Pair<IFeedItem, IFeedItem> same : sameAsNew) {
+			same.getValue1().setGenId(same.getValue2().getGenId());
+			feed.getFeedItems().add(same.getValue1());
+		}
+		for (ListenableFuture<RqlCursor> update : updates) {
+			try {
+				getResult(update);
+			} catch (RqlDriverException e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+		addToCounters(insertedCount, FeedItemProperty.TABLE_NAME.toString(), getCounterKey(feed.getGenId()));
+		if (failure != null) {
+			LOG.error(failure.getMessage(), failure);
+			return null;
+		}
+		LOG.info("Inserted {} Updated {} of {}. New: '{}' Updated: '{}' in {} ms", inserted.size(), updated.size(),
+				feed.getFeedItems().size(), inserted.toString(), updated.toString(), (System.currentTimeMillis() - time));
 		return items;
 	}
 
@@ -486,197 +1814,445 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 	public boolean saveItem(IFeedItem item) {
 		boolean success = false;
 		long time = System.currentTimeMillis();
+		if (StringTools.isBlankOrNull(item.getGenId()) || StringTools.isBlankOrNull(item.getFeedId())) {
+			return success;
+		}
+		WriteBehindBuffer buffer = writeBehind;
+		if (buffer != null && buffer.add(item.getGenId(), createMap(item, item.getFeedId()))) {
+			LOG.debug("Buffered update of item {}/{}", item.getGenId(), item.getFeedId());
+			return true;
+		}
 		try {
-			if (!StringTools.isBlankOrNull(item.getGenId()) && !StringTools.isBlankOrNull(item.getFeedId())) {
-				RqlConnection r = getConnection();
-				Map<String, Object> values = createMap(item, item.getFeedId());
-				r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get(item.getGenId()).update(values));
+			RqlConnection r = getConnection();
+			Map<String, Object> values = createMap(item, item.getFeedId());
+			runWrite(r, r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get(item.getGenId()).update(values), Operation.SAVE_ITEM, null);
+			success = true;
+			LOG.info("Updated item {}/{} in {} ms.", item.getGenId(), item.getFeedId(), (System.currentTimeMillis() - time));
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+		return success;
+	}
+
+	/**
+	 * Writes the merged item updates of the write behind buffer with one insert(conflict: update).
+	 * A failed write or a reply with errors keeps the whole batch in the buffer for the next flush,
+	 * rewriting the updates that did succeed changes nothing. {@link #deleteItem(IFeedItem)} drops
+	 * the pending update of the item, an item deleted by another process in the meantime is
+	 * written again from its update.
+	 */
+	private boolean writeItemUpdates(List<Map<String, Object>> documents) {
+		long time = System.currentTimeMillis();
+		boolean success = false;
+		try {
+			RqlConnection r = getConnection();
+			RqlCursor cursor = runWrite(r, r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).insert(documents), Operation.SAVE_ITEM, conflictUpdate);
+			WriteResult result = cursor == null ? new WriteResult() : WriteResult.from(cursor.next().getMap());
+			if (result.getErrors() > 0) {
+				LOG.error("Buffered update failed for {} of {} items, keeping them for the next flush: {}", result.getErrors(), documents.size(), result.getFirstError());
+			}
+			else {
+				if (result.getInserted() > 0) {
+					LOG.warn("{} buffered updates recreated items that had been deleted", result.getInserted());
+				}
 				success = true;
-				LOG.info("Updated item {}/{} in {} ms.", item.getGenId(), item.getFeedId(), (System.currentTimeMillis() - time));
+				LOG.info("Wrote {} buffered item updates in {} ms. {}", documents.size(), (System.currentTimeMillis() - time), result);
 			}
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
+		} finally {
+			releaseConnection();
 		}
 		return success;
 	}
 
+	@Override
+	public int flush() {
+		WriteBehindBuffer buffer = writeBehind;
+		return buffer == null ? 0 : buffer.flush();
+	}
+
+	/**
+	 * @return null if write behind isn't enabled
+	 */
+	public WriteBehindBuffer getWriteBehindBuffer() {
+		return writeBehind;
+	}
+
 	@Override
 	public boolean deleteItem(IFeedItem feed) {
 		boolean success = false;
+		WriteBehindBuffer buffer = writeBehind;
+		if (buffer != null && !StringTools.isBlankOrNull(feed.getGenId())) {
+			buffer.remove(feed.getGenId());
+		}
+		try {
+			RqlConnection r = getConnection();
+			RqlCursor cursor;
+			if (StringTools.isBlankOrNull(feed.getGenId())) {
+				Map<String, Object> values = new HashMap<>();
+				put(values, FeedItemProperty.FEED_ID, feed.getFeedId());
+				putStr(values, FeedItemProperty.LINK, feed.getLink());
+				cursor = r.run(withPolicy(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).filter(values).delete(), Operation.DELETE_ITEM, null));
+			}
+			else {
+				cursor = r.run(withPolicy(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get(feed.getGenId()).delete(), Operation.DELETE_ITEM, null));
+			}
+			int deleted = WriteResult.from(cursor.next().getMap()).getDeleted();
+			if (StringTools.isBlankOrNull(feed.getFeedId())) {
+				addToCounters(-deleted, FeedItemProperty.TABLE_NAME.toString());
+			}
+			else {
+				addToCounters(-deleted, FeedItemProperty.TABLE_NAME.toString(), getCounterKey(feed.getFeedId()));
+			}
+			LOG.info("Deleted item {}/{}", feed.getFeedId(), feed.getGenId());
+			success = true;
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+		return success;
+	}
+
+	/**
+	 * r.table('blog').getAll(...ids).update(function(feed) {
+	 *     return feed.merge({url: feed.hasFields("url").branch(feed("url").match("^\\s*([\\s\\S]*?)/?\\s*$")("groups").nth(0)("str"), null)})
+	 * })
+	 * @return feeds found, or the number of ids if maintenance writes don't wait for replies
+	 */
+	@Override
+	public int trimFeedUrlSlashes(List<String> ids) {
+		long time = System.currentTimeMillis();
+		WriteResult result = bulkUpdate(FeedProperty.TABLE_NAME, ids, new Function() {
+			@Override
+			public RqlQuery apply(Var feed) {
+				return feed.merge(getMap(FeedProperty.URL, getTrimmedField(feed, FeedProperty.URL, TRIM_SLASH_REGEXP)));
+			}
+		});
+		feedCache.invalidateAll(ids);
+		feedIdCache.invalidateAll();
+		LOG.info("{} items of {} trimmed in {} ms. {}", result.getReplaced(), ids.size(), (System.currentTimeMillis() - time), result);
+		return getMatched(result, ids);
+	}
+
+	/**
+	 * Trims title, content, link and author, fields that are missing or null are left null
+	 * @return items found, or the number of ids if maintenance writes don't wait for replies
+	 */
+	@Override
+	public int trimItemWhiteSpace(List<String> ids) {
+		long time = System.currentTimeMillis();
+		WriteResult result = bulkUpdate(FeedItemProperty.TABLE_NAME, ids, new Function() {
+			@Override
+			public RqlQuery apply(Var item) {
+				Map<String, Object> values = new HashMap<>();
+				for (FeedItemProperty property : Arrays.asList(FeedItemProperty.TITLE, FeedItemProperty.CONTENT, FeedItemProperty.LINK, FeedItemProperty.AUTHOR)) {
+					put(values, property, getTrimmedField(item, property, TRIM_REGEXP));
+				}
+				return item.merge(values);
+			}
+		});
+		LOG.info("{} items trimmed in {} ms. {}", result.getReplaced(), (System.currentTimeMillis() - time), result);
+		return getMatched(result, ids);
+	}
+
+	/** Documents a bulk update found, the requested ids when the update didn't wait for its reply */
+	private int getMatched(WriteResult result, List<String> ids) {
+		return writePolicies.get(Operation.MAINTENANCE).isNoreply() ? ids.size() : result.getMatched();
+	}
+
+	/**
+	 * One-time migration of the items saved before feed_link and feed_uri were written, see
+	 * {@link #backfillItemKeys(String)}. Feeds that are already keyed are skipped.
+	 */
+	@Override
+	public int backfillItemKeys(List<String> feedIds) {
+		long time = System.currentTimeMillis();
+		int keyed = 0;
+		for (String feedId : feedIds) {
+			if (!hasItemKeys(feedId)) {
+				keyed += Math.max(0, backfillItemKeys(feedId));
+			}
+		}
+		LOG.info("Keyed {} items of {} feeds in {} ms.", keyed, feedIds.size(), (System.currentTimeMillis() - time));
+		return keyed;
+	}
+
+	/**
+	 * Writes feed_link and feed_uri on the items of the feed that don't have them and marks the
+	 * feed with itemkeys, from then on its items are only looked up through those indexes. The keys
+	 * are computed in Java like for new items because the normalization doesn't translate to ReQL,
+	 * and written with one insert(conflict: update) of {id, feed_link, feed_uri} per batch of items.
+	 * Runs once per feed, on the first save of a feed that isn't keyed or from {@link #backfillItemKeys(List)}.
+	 * @return number of items that got keys, -1 if the feed isn't marked
+	 */
+	protected int backfillItemKeys(String feedId) {
+		if (StringTools.isBlankOrNull(feedId)) {
+			return -1;
+		}
+		long time = System.currentTimeMillis();
+		List<Map<String, Object>> keys = new ArrayList<>();
 		try {
 			RqlConnection r = getConnection();
-			if (StringTools.isBlankOrNull(feed.getGenId())) {
+			RqlQuery table = r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString());
+			RqlCursor cursor = r.run(table.get_all(feedId).optargs(feedIdIndex).pluck(FeedItemProperty.GEN_ID.toString(),
+					FeedItemProperty.LINK.toString(), FeedItemProperty.URI.toString(),
+					FeedItemProperty.FEED_LINK.toString(), FeedItemProperty.FEED_URI.toString()));
+			for (Map<String,Object> m : getDocuments(cursor)) {
 				Map<String, Object> values = new HashMap<>();
-				put(values, FeedItemProperty.FEED_ID, feed.getFeedId());
-				putStr(values, FeedItemProperty.LINK, feed.getLink());
-				r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).filter(values).delete());
+				String link = getStr(m, FeedItemProperty.LINK, null);
+				String uri = getStr(m, FeedItemProperty.URI, null);
+				if (!StringTools.isBlankOrNull(link) && get(m, FeedItemProperty.FEED_LINK) == null) {
+					put(values, FeedItemProperty.FEED_LINK, getCompoundKey(feedId, link));
+				}
+				if (!StringTools.isBlankOrNull(uri) && get(m, FeedItemProperty.FEED_URI) == null) {
+					put(values, FeedItemProperty.FEED_URI, getCompoundKey(feedId, uri));
+				}
+				if (!values.isEmpty()) {
+					// an item deleted before the insert comes back with just its keys, still under its feed
+					put(values, FeedItemProperty.GEN_ID, get(m, FeedItemProperty.GEN_ID));
+					put(values, FeedItemProperty.FEED_ID, feedId);
+					keys.add(values);
+				}
 			}
-			else {
-				r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get(feed.getGenId()).delete());
+			WriteResult result = new WriteResult();
+			for (List<Map<String, Object>> batch : Lists.partition(keys, bulkBatchSize)) {
+				RqlCursor written = runWrite(r, table.insert(batch), Operation.MAINTENANCE, conflictUpdate);
+				if (written != null) {
+					result.add(WriteResult.from(written.next().getMap()));
+				}
 			}
-			LOG.info("Deleted item {}/{}", feed.getFeedId(), feed.getGenId());
-			success = true;
+			if (result.getErrors() > 0) {
+				LOG.error("Keying items of feed {} failed for {} items: {}", feedId, result.getErrors(), result.getFirstError());
+				return -1;
+			}
+			Map<String, Object> values = new HashMap<>();
+			put(values, FeedProperty.ITEM_KEYS, true);
+			runWrite(r, r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feedId).update(values), Operation.MAINTENANCE, null);
+			updateCachedFeed(feedId, values);
+			LOG.info("Keyed {} items of feed {} in {} ms.", keys.size(), feedId, (System.currentTimeMillis() - time));
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
 			handleDriverException(e);
+			return -1;
+		} finally {
+			releaseConnection();
 		}
-		return success;
+		return keys.size();
 	}
 
-	@Override
-	public int trimFeedUrlSlashes(List<String> ids) {
-		int counter = 0;
-		int updateCounter = 0;
-		long time = System.currentTimeMillis();
+	/**
+	 * Feeds inserted with itemkeys or marked by {@link #backfillItemKeys(String)} have feed_link and
+	 * feed_uri on all of their items
+	 */
+	protected boolean hasItemKeys(String feedId) {
 		try {
-			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get_all(ids.toArray()));
-			for(RqlObject ro : cursor) {
-				List<Object> list = ro.getList();
-				for (Object object : list) {
-					Map<String,Object> m = (Map<String,Object>)object;
-					IFeed feed = buildFeed(m);
-					if (!StringTools.isBlankOrNull(feed.getUrl()) && feed.getUrl().trim().endsWith("/")) {
-						RqlConnection r2 = getConnection();
-						Map<String, Object> values = new HashMap<>();
-						putStr(values, FeedProperty.URL, UrlTools.trimUrl(feed.getUrl()));
-						r2.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).get(feed.getGenId()).update(values));
-						updateCounter++;
-					}
-					counter++;
-				}
-			}
+			Map<String,Object> m = getFeedDocument(feedId);
+			return m != null && Boolean.TRUE.equals(get(m, FeedProperty.ITEM_KEYS));
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
+			return false;
 		}
-		LOG.info("{} items of {} trimmed in {} ms.", updateCounter, ids.size(), (System.currentTimeMillis() - time));
-		return counter;
 	}
 
-	@Override
-	public int trimItemWhiteSpace(List<String> ids) {
-		int counter = 0;
-		long time = System.currentTimeMillis();
+	/**
+	 * Updates the documents with the given ids inside RethinkDB, one get_all(ids).update(function)
+	 * query per batch of ids. The result is empty if maintenance writes don't wait for replies.
+	 */
+	public WriteResult bulkUpdate(ITable table, List<String> ids, Function update) {
+		WriteResult result = new WriteResult();
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).get_all(ids.toArray()));
-			for(RqlObject ro : cursor) {
-				List<Object> list = ro.getList();
-				for (Object object : list) {
-					Map<String,Object> m = (Map<String,Object>)object;
-					IFeedItem item = buildFeedItem(m, true);
-					saveItem(item);
-					counter++;
+			for (List<String> batch : Lists.partition(ids, bulkBatchSize)) {
+				RqlCursor cursor = runWrite(r, r.db(getDbName()).table(table.getTableName()).get_all(batch.toArray()).update(update), Operation.MAINTENANCE, null);
+				if (cursor != null) {
+					result.add(WriteResult.from(cursor.next().getMap()));
 				}
 			}
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
 		}
-		LOG.info("{} items trimmed in {} ms.", counter, (System.currentTimeMillis() - time));
-		return counter;
+		if (result.getErrors() > 0) {
+			LOG.error("Bulk update of {} failed for {} documents: {}", table.getTableName(), result.getErrors(), result.getFirstError());
+		}
+		return result;
+	}
+
+	/** First group of a regular expression match: value.match(regExp)("groups").nth(0)("str") */
+	protected RqlQuery getMatchGroup(RqlQuery value, String regExp) {
+		return new GetField(new GetField(value.match(regExp), "groups").nth(0), "str");
+	}
+
+	/**
+	 * First match group of the field, null if the field is missing or null since match would fail
+	 * the update of the whole document: document.hasFields(field).branch(match group, null)
+	 */
+	protected RqlQuery getTrimmedField(Var document, ITable property, String regExp) {
+		return document.has_fields(property.toString()).branch(getMatchGroup(new GetField(document, property.toString()), regExp), null);
 	}
 
 	/** Test for duplicate feed items by url and uri */
 	@Override
 	public void testFeedItems() {
 		long time = System.currentTimeMillis();
-		int itemCounter = 0;
-		int feedCounter = 0;
-		boolean allOk = true;
-		List<String> messages = new ArrayList<>();
+		DuplicateReport report = scanDuplicateItems();
+		for (DuplicateReport.Duplicate duplicate : report.getDuplicates()) {
+			LOG.info("{}", duplicate);
+		}
+		for (String failure : report.getFailures()) {
+			LOG.error("Scan failed: {}", failure);
+		}
+		LOG.info("Loaded {} feed items of {} feeds in {} ms. {}", report.getItemCount(), report.getFeedCount(), (System.currentTimeMillis() - time),
+				(!report.isComplete() ? "Scan incomplete." : report.isOk() ? "No duplicates found." : "Duplicates found."));
+	}
+
+	/**
+	 * Reads blog_item once ordered by feed_id and checks the items of each feed for duplicates
+	 * on a fork join pool while the next feeds are read. At most {@link #scanParallelism} * 2
+	 * feeds are held in memory at a time.
+	 * 
+	 * r.table('blog_item').orderBy({index: 'feed_id'})
+	 */
+	public DuplicateReport scanDuplicateItems() {
+		final DuplicateReport report = new DuplicateReport();
+		final ForkJoinPool pool = new ForkJoinPool(scanParallelism);
+		final Semaphore inFlight = new Semaphore(scanParallelism * 2);
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()));
-
+			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedItemProperty.TABLE_NAME.toString()).order_by().optargs(feedIdIndex));
+			List<IFeedItem> group = new ArrayList<>();
 			for(RqlObject o : cursor) {
-				String genId = get(o.getMap(), FeedProperty.GEN_ID).toString();
-				List<IFeed> feeds = loadFeeds(Arrays.asList(genId), true);
-				if (feeds.size() != 1) {
-					LOG.error("Error loading feed with {}", genId);
-					return;
-				}
-				Map<String, IFeedItem> linkToItem = new HashMap<>();
-				Map<String, IFeedItem> uriToItem = new HashMap<>();
-				Map<String, IFeedItem> titlePubContToItem = new HashMap<>();
-				IFeed f = feeds.get(0);
-				for (IFeedItem item : f.getFeedItems()) {
-
-					if (UrlTools.isValidUrl(item.getLink())) {
-						String link = UrlTools.getHost(item.getLink());
-						if (linkToItem.containsKey(link)) {
-							IFeedItem existingItem = linkToItem.get(link);
-							allOk = false;
-
-							String l1 = UrlTools.isValidUrl(existingItem.getLink()) ? UrlTools.getHost(existingItem.getLink()) : existingItem.getLink();
-							String l2 = UrlTools.isValidUrl(item.getLink()) ? UrlTools.getHost(item.getLink()) : item.getLink();
-							String u1 = UrlTools.isValidUrl(existingItem.getUri()) ? UrlTools.getHost(existingItem.getUri()) : existingItem.getUri();
-							String u2 = UrlTools.isValidUrl(item.getUri()) ? UrlTools.getHost(item.getUri()) : item.getUri();
-							String c1 = existingItem.getContent();
-							String c2 = item.getContent();
-							if (areEquals(existingItem.getTitle(), item.getTitle()) && areEquals(l1, l2) && areEquals(u1, u2) && areEquals(c1, c2)) {
-								IFeedItem itemToDelete = existingItem.getCreatedDate().after(item.getCreatedDate()) ? item : existingItem;
-								messages.add(String.format("1. Items '%s','%s' equal, deleted created at %s for %s", item.getGenId(), existingItem.getGenId(), DateTools.formatLongDate(itemToDelete.getCreatedDate()), itemToDelete.getUri()));
-								continue;
-							}
+				IFeedItem item = buildFeedItem(o.getMap(), true);
+				if (!group.isEmpty() && !Objects.equals(group.get(0).getFeedId(), item.getFeedId())) {
+					submitItemCheck(pool, inFlight, group, report);
+					group = new ArrayList<>();
+				}
+				group.add(item);
+			}
+			if (!group.isEmpty()) {
+				submitItemCheck(pool, inFlight, group, report);
+			}
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+			report.addFailure("Reading items failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report.addFailure("Interrupted while reading items");
+		} finally {
+			releaseConnection();
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				report.addFailure("Interrupted while checking items");
+			}
+		}
+		return report;
+	}
 
-							if (areEquals(existingItem.getTitle(), item.getTitle()) &&
-									areEquals(l1, l2) && areEquals(u1, u2) &&
-									DateTools.equalsIgnoreMinsSecs(existingItem.getPublishDate(), item.getPublishDate()) &&
-									areEquals(existingItem.getAuthor(), item.getAuthor())) {
-								IFeedItem itemToDelete = existingItem.getCreatedDate().after(item.getCreatedDate()) ? item : existingItem;
-								messages.add(String.format("2. Items '%s','%s' equal, deleted created at %s for %s", item.getGenId(), existingItem.getGenId(), DateTools.formatLongDate(itemToDelete.getCreatedDate()), itemToDelete.getUri()));
-								continue;
-							}
+	private void submitItemCheck(ForkJoinPool pool, final Semaphore inFlight, final List<IFeedItem> items, final DuplicateReport report) throws InterruptedException {
+		inFlight.acquire();
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkItems(items, report);
+				} catch (IOException | RuntimeException e) {
+					LOG.error(e.getMessage(), e);
+					report.addFailure("Checking items of feed " + items.get(0).getFeedId() + " failed: " + e.getMessage());
+				} finally {
+					inFlight.release();
+				}
+			}
+		});
+	}
 
-							messages.add(String.format("Duplicate items '%s','%s', for URL '%s'", item.getGenId(), existingItem.getGenId(), link));
-						}
-						else {
-							linkToItem.put(link, item);
-						}
+	/** Checks the items of one feed for duplicate links, uris and title+published+content */
+	protected void checkItems(List<IFeedItem> items, DuplicateReport report) throws IOException {
+		Map<String, IFeedItem> linkToItem = new HashMap<>();
+		Map<String, IFeedItem> uriToItem = new HashMap<>();
+		Map<String, IFeedItem> titlePubContToItem = new HashMap<>();
+		int itemCounter = 0;
+		for (IFeedItem item : items) {
+			String feedId = item.getFeedId();
+
+			if (UrlTools.isValidUrl(item.getLink())) {
+				String link = UrlTools.getHost(item.getLink());
+				if (linkToItem.containsKey(link)) {
+					IFeedItem existingItem = linkToItem.get(link);
+
+					String l1 = UrlTools.isValidUrl(existingItem.getLink()) ? UrlTools.getHost(existingItem.getLink()) : existingItem.getLink();
+					String l2 = UrlTools.isValidUrl(item.getLink()) ? UrlTools.getHost(item.getLink()) : item.getLink();
+					String u1 = UrlTools.isValidUrl(existingItem.getUri()) ? UrlTools.getHost(existingItem.getUri()) : existingItem.getUri();
+					String u2 = UrlTools.isValidUrl(item.getUri()) ? UrlTools.getHost(item.getUri()) : item.getUri();
+					String c1 = existingItem.getContent();
+					String c2 = item.getContent();
+					if (areEquals(existingItem.getTitle(), item.getTitle()) && areEquals(l1, l2) && areEquals(u1, u2) && areEquals(c1, c2)) {
+						report.add(new DuplicateReport.Duplicate(DuplicateReport.Kind.EQUAL, feedId, item.getGenId(), existingItem.getGenId(), link));
+						continue;
 					}
 
-					String titlePubContKey = item.getTitle() + (item.getPublishDate() == null ? DateTools.DEFAULT_DATE_MAX.getTime() : item.getPublishDate().getTime()) + item.getContent().hashCode();
-					if (titlePubContToItem.containsKey(titlePubContKey) && StringTools.areEqualsAlsoNulls(titlePubContToItem.get(titlePubContKey).getUri(), item.getUri())) {
-						IFeedItem existingItem = titlePubContToItem.get(titlePubContKey);
-						messages.add(String.format("Duplicate items '%s','%s', for title+pub+cont '%s'", item.getGenId(), existingItem.getGenId(), item.getLink()));
-						allOk = false;
-
-						String host = StringTools.isBlankOrNull(existingItem.getLink()) ? "" : UrlTools.getBaseUrl(existingItem.getLink());
-
-						if (host.equals("http://www.jpl.nasa.gov") || host.equals("http://blog.tmorris.net")) {
-							IFeedItem itemToDelete = StringTools.isBlankOrNull(existingItem.getUri()) ? existingItem :
-								StringTools.isBlankOrNull(item.getUri()) ? item : null;
-							if (itemToDelete != null) {
-								LOG.info("Deleting duplicate item '{}' without uri, link {}", itemToDelete.getGenId(), itemToDelete.getLink());
-								deleteItem(itemToDelete);
-								titlePubContToItem.remove(titlePubContKey);
-							}
-						}
-					}
-					else {
-						titlePubContToItem.put(titlePubContKey, item);
+					if (areEquals(existingItem.getTitle(), item.getTitle()) &&
+							areEquals(l1, l2) && areEquals(u1, u2) &&
+							DateTools.equalsIgnoreMinsSecs(existingItem.getPublishDate(), item.getPublishDate()) &&
+							areEquals(existingItem.getAuthor(), item.getAuthor())) {
+						report.add(new DuplicateReport.Duplicate(DuplicateReport.Kind.EQUAL_METADATA, feedId, item.getGenId(), existingItem.getGenId(), link));
+						continue;
 					}
 
-					String uri = item.getUri();
-					if (!StringTools.isBlankOrNull(uri)) {
-						if (uriToItem.containsKey(uri)) {
-							IFeedItem existingItem = uriToItem.get(uri);
-							messages.add(String.format("Duplicate items '%s','%s', for URI '%s'", item.getGenId(), existingItem.getGenId(), uri));
-							allOk = false;
-						}
-						else {
-							uriToItem.put(uri, item);
-						}
+					report.add(new DuplicateReport.Duplicate(DuplicateReport.Kind.LINK, feedId, item.getGenId(), existingItem.getGenId(), link));
+				}
+				else {
+					linkToItem.put(link, item);
+				}
+			}
+
+			String titlePubContKey = item.getTitle() + (item.getPublishDate() == null ? DateTools.DEFAULT_DATE_MAX.getTime() : item.getPublishDate().getTime()) + item.getContent().hashCode();
+			if (titlePubContToItem.containsKey(titlePubContKey) && StringTools.areEqualsAlsoNulls(titlePubContToItem.get(titlePubContKey).getUri(), item.getUri())) {
+				IFeedItem existingItem = titlePubContToItem.get(titlePubContKey);
+				report.add(new DuplicateReport.Duplicate(DuplicateReport.Kind.TITLE_PUBLISHED_CONTENT, feedId, item.getGenId(), existingItem.getGenId(), item.getLink()));
+
+				String host = StringTools.isBlankOrNull(existingItem.getLink()) ? "" : UrlTools.getBaseUrl(existingItem.getLink());
+
+				if (host.equals("http://www.jpl.nasa.gov") || host.equals("http://blog.tmorris.net")) {
+					IFeedItem itemToDelete = StringTools.isBlankOrNull(existingItem.getUri()) ? existingItem :
+						StringTools.isBlankOrNull(item.getUri()) ? item : null;
+					if (itemToDelete != null) {
+						LOG.info("Deleting duplicate item '{}' without uri, link {}", itemToDelete.getGenId(), itemToDelete.getLink());
+						deleteItem(itemToDelete);
+						titlePubContToItem.remove(titlePubContKey);
 					}
-					itemCounter++;
 				}
-				feedCounter++;
 			}
-		} catch (RqlDriverException | IOException e) {
-			LOG.error(e.getMessage(), e);
+			else {
+				titlePubContToItem.put(titlePubContKey, item);
+			}
+
+			String uri = item.getUri();
+			if (!StringTools.isBlankOrNull(uri)) {
+				if (uriToItem.containsKey(uri)) {
+					IFeedItem existingItem = uriToItem.get(uri);
+					report.add(new DuplicateReport.Duplicate(DuplicateReport.Kind.URI, feedId, item.getGenId(), existingItem.getGenId(), uri));
+				}
+				else {
+					uriToItem.put(uri, item);
+				}
+			}
+			itemCounter++;
 		}
-		LOG.info("Loaded {} feed items of {} feeds in {} ms. {}", itemCounter, feedCounter, (System.currentTimeMillis() - time), (allOk ? "No duplicates found." : "Duplicates found."));
+		report.addItems(itemCounter);
+		report.addFeed();
 	}
 
 	/** Test for duplicate feed urls */
@@ -684,30 +2260,56 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 	public void testFeeds() {
 		LOG.info("Checking feed integrity..");
 		long time = System.currentTimeMillis();
-		int counter = 0;
-		boolean allOk = true;
+		Map<String, List<String>> duplicates = getDuplicateFeedUrls();
+		for (Map.Entry<String, List<String>> entry : duplicates.entrySet()) {
+			LOG.info("Duplicate feeds {}, url {}", entry.getValue(), entry.getKey());
+		}
+		LOG.info("Checked feeds in {} ms. {}", (System.currentTimeMillis() - time), (duplicates.isEmpty() ? "No duplicate urls found." : "Duplicate urls found."));
+	}
+
+	/**
+	 * Feed ids by lower case url, only for urls that have more than one feed. Grouping and filtering
+	 * are done by RethinkDB.
+	 * 
+	 * r.table('blog').group(function(feed) { return feed("url").downcase() }).map(function(feed) { return feed("id") })
+	 *     .ungroup().filter(function(g) { return g("reduction").count().gt(1) })
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<String, List<String>> getDuplicateFeedUrls() {
+		Map<String, List<String>> duplicates = new HashMap<>();
 		try {
 			RqlConnection r = getConnection();
-			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()));
-			Map<String, IFeed> urlToFeed = new HashMap<>();
-			for(RqlObject o : cursor) {
-				Map<String,Object> m = o.getMap();
-				IFeed feed = buildFeed(m);
-				String key = feed.getUrl().toLowerCase();
-				if (urlToFeed.containsKey(key)) {
-					IFeed existingFeed = urlToFeed.get(key);
-					LOG.info("Duplicate feed {} and {}, url {}", feed.getGenId(), existingFeed.getGenId(), key);
-					allOk = false;
+			RqlCursor cursor = r.run(r.db(getDbName()).table(FeedProperty.TABLE_NAME.toString()).group(new Function() {
+				@Override
+				public RqlQuery apply(Var feed) {
+					return new GetField(feed, FeedProperty.URL.toString()).downcase();
 				}
-				else {
-					urlToFeed.put(key, feed);
+			}).map(new Function() {
+				@Override
+				public RqlQuery apply(Var feed) {
+					return new GetField(feed, FeedProperty.GEN_ID.toString());
+				}
+			}).ungroup().filter(new Function() {
+				@Override
+				public RqlQuery apply(Var group) {
+					return new GetField(group, ATTR_REDUCTION).count().gt(1);
 				}
-				counter++;
+			}));
+			for (Map<String,Object> m : getDocuments(cursor)) {
+				List<String> ids = new ArrayList<>();
+				for (Object id : (List<Object>) m.get(ATTR_REDUCTION)) {
+					ids.add(id.toString());
+				}
+				duplicates.put(StringTools.nullToEmpty(m.get(ATTR_GROUP)), ids);
 			}
 		} catch (RqlDriverException e) {
 			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
 		}
-		LOG.info("Loaded {} feeds in {} ms. {}", counter, (System.currentTimeMillis() - time), (allOk ? "No duplicate urls found." : "Duplicate urls found."));
+		return duplicates;
 	}
 
 	@Override
@@ -717,15 +2319,301 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 
 	public abstract String getServerHost();
 
-	protected RqlConnection getConnection() {
-		return connectionTL.get();
+	@Override
+	public void shutdown() {
+		WriteBehindBuffer buffer = writeBehind;
+		if (buffer != null) {
+			buffer.close();
+		}
+		setSyncInterval(0);
+		singleFlight.close();
+		if (!unacknowledged.isEmpty()) {
+			sync();
+		}
+		for (ListeningExecutorService executor : Arrays.asList(fetchExecutor, saveExecutor, queryExecutor)) {
+			if (executor != null) {
+				executor.shutdown();
+				try {
+					executor.awaitTermination(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		closeHttpClient();
+		RqlConnectionPool pool = connectionPool;
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	public RqlConnectionPool getConnectionPool() {
+		RqlConnectionPool pool = connectionPool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = connectionPool;
+				if (pool == null) {
+					pool = new RqlConnectionPool(new RqlConnectionPool.IConnectionFactory() {
+						@Override
+						public RqlConnection create() throws RqlDriverException {
+							LOG.info("Creating new connection to {}:{}", getServerHost(), getServerPort());
+							return RqlConnection.connect(getServerHost(), getServerPort());
+						}
+
+						@Override
+						public boolean validate(RqlConnection connection) {
+							try {
+								connection.run(connection.db_list());
+								return true;
+							} catch (RqlDriverException e) {
+								LOG.warn("Connection check failed: {}", e.getMessage());
+								return false;
+							}
+						}
+					}, minConnections, maxConnections);
+					pool.warmUp();
+					connectionPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Adds the durability of the operation's write policy to the optargs of the write
+	 * @param optargs other optargs of the write, may be null
+	 */
+	protected RqlQuery withPolicy(RqlQuery write, Operation operation, Map<String,Object> optargs) {
+		WritePolicy policy = writePolicies.get(operation);
+		if (policy == WritePolicy.HARD) {
+			return optargs == null ? write : write.optargs(optargs);
+		}
+		Map<String,Object> args = optargs == null ? new HashMap<String,Object>() : new HashMap<>(optargs);
+		args.put(WritePolicy.OPTARG_DURABILITY, policy.getDurability());
+		return write.optargs(args);
+	}
+
+	/**
+	 * Runs a write whose reply is not needed by the caller
+	 * @return null if the write policy of the operation doesn't wait for the reply
+	 */
+	protected RqlCursor runWrite(RqlConnection r, RqlQuery write, Operation operation, Map<String,Object> optargs) throws RqlDriverException {
+		RqlQuery query = withPolicy(write, operation, optargs);
+		if (!writePolicies.get(operation).isNoreply()) {
+			return r.run(query);
+		}
+		final ListenableFuture<RqlCursor> future = runAsync(query);
+		unacknowledged.add(future);
+		Futures.addCallback(future, new FutureCallback<RqlCursor>() {
+			@Override
+			public void onSuccess(RqlCursor result) {
+				unacknowledged.remove(future);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				unacknowledged.remove(future);
+				LOG.error("Unacknowledged write failed: {}", t.getMessage(), t);
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Waits for the writes that were sent without waiting for their reply and flushes the soft
+	 * writes of the feed, item and stats tables to disk
+	 */
+	@Override
+	public void sync() {
+		long time = System.currentTimeMillis();
+		List<ListenableFuture<RqlCursor>> pending = new ArrayList<>(unacknowledged);
+		try {
+			Futures.successfulAsList(pending).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		try {
+			RqlConnection r = getConnection();
+			for (ITable table : Arrays.<ITable>asList(FeedProperty.TABLE_NAME, FeedItemProperty.TABLE_NAME, StatsProperty.TABLE_NAME)) {
+				r.run(r.db(getDbName()).table(table.getTableName()).sync());
+			}
+			LOG.info("Synced after {} unacknowledged writes in {} ms", pending.size(), (System.currentTimeMillis() - time));
+		} catch (RqlDriverException e) {
+			LOG.error(e.getMessage(), e);
+			handleDriverException(e);
+		} finally {
+			releaseConnection();
+		}
+	}
+
+	/**
+	 * Runs the query on a pooled connection of the query executor, so that several queries of one
+	 * caller are in flight at the same time. The cursor should be read only for small results, like
+	 * write results, since the connection is back in the pool when the future completes.
+	 */
+	public ListenableFuture<RqlCursor> runAsync(final RqlQuery query) {
+		return getQueryExecutor().submit(new Callable<RqlCursor>() {
+			@Override
+			public RqlCursor call() throws RqlDriverException {
+				try {
+					return getConnection().run(query);
+				} catch (RqlDriverException e) {
+					handleDriverException(e);
+					throw e;
+				} finally {
+					releaseConnection();
+				}
+			}
+		});
+	}
+
+	protected RqlCursor getResult(Future<RqlCursor> future) throws RqlDriverException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RqlDriverException("Interrupted while waiting for a query result");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RqlDriverException) {
+				throw (RqlDriverException) e.getCause();
+			}
+			throw new RqlDriverException(getStackTraceMessage(e));
+		}
+	}
+
+	/** Executor for single queries, they never wait for other queries */
+	protected ListeningExecutorService getQueryExecutor() {
+		if (queryExecutor == null) {
+			createExecutors();
+		}
+		return queryExecutor;
+	}
+
+	/**
+	 * Executor for saving fetched feeds. It has half as many threads as there are connections,
+	 * leaving the rest of the pool to the queries the saves wait for.
+	 */
+	protected ListeningExecutorService getSaveExecutor() {
+		if (saveExecutor == null) {
+			createExecutors();
+		}
+		return saveExecutor;
+	}
+
+	/** Permits for the http pool size when the first feed is fetched, unless set by {@link #setStageConcurrency(int, int)} */
+	private synchronized Semaphore getFetchPermits() {
+		if (fetchPermits == null) {
+			fetchPermits = new Semaphore(Math.max(1, getHttpPoolSize()), true);
+		}
+		return fetchPermits;
+	}
+
+	private synchronized Semaphore getSavePermits() {
+		if (savePermits == null) {
+			savePermits = new Semaphore(Math.max(1, maxConnections / 2), true);
+		}
+		return savePermits;
+	}
+
+	/** Executor starting a virtual thread per feed update */
+	protected ListeningExecutorService getFetchExecutor() {
+		if (fetchExecutor == null) {
+			synchronized (this) {
+				if (fetchExecutor == null) {
+					fetchExecutor = MoreExecutors.listeningDecorator(Executors.newThreadPerTaskExecutor(
+							Thread.ofVirtual().name("feed-fetch-", 0).factory()));
+				}
+			}
+		}
+		return fetchExecutor;
+	}
+
+	private synchronized void createExecutors() {
+		if (queryExecutor == null) {
+			queryExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(maxConnections,
+					new ThreadFactoryBuilder().setNameFormat("rql-query-%d").setDaemon(true).build()));
+			saveExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(Math.max(1, maxConnections / 2),
+					new ThreadFactoryBuilder().setNameFormat("rql-save-%d").setDaemon(true).build()));
+		}
+	}
+
+	/** Borrows a connection from the pool, every call must be paired with {@link #releaseConnection()} */
+	protected RqlConnection getConnection() throws RqlDriverException {
+		ConnectionLease lease = connectionLease.get();
+		if (lease == null) {
+			lease = new ConnectionLease(getConnectionPool().borrow());
+			connectionLease.set(lease);
+		}
+		lease.depth++;
+		return lease.connection;
+	}
+
+	protected void releaseConnection() {
+		ConnectionLease lease = connectionLease.get();
+		if (lease != null && --lease.depth <= 0) {
+			connectionLease.remove();
+			if (lease.broken) {
+				getConnectionPool().invalidate(lease.connection);
+			}
+			else {
+				getConnectionPool().release(lease.connection);
+			}
+		}
 	}
 
 	protected void handleDriverException(RqlDriverException e) {
 		LOG.warn("Driver Exception, trying to reconnect...");
-		if (e.getMessage() == null || "null".equals(e.getMessage())) {
-			connectionTL.remove();
+		ConnectionLease lease = connectionLease.get();
+		if (lease != null && (e.getMessage() == null || "null".equals(e.getMessage()))) {
+			lease.broken = true;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected List<Map<String,Object>> getDocuments(RqlCursor cursor) throws RqlDriverException {
+		List<Map<String,Object>> documents = new ArrayList<>();
+		for(RqlObject o : cursor) {
+			for (Object object : o.getList()) {
+				documents.add((Map<String,Object>) object);
+			}
+		}
+		return documents;
+	}
+
+	/** Key with the same precedence as {@link #getExistingFeedItem(String, String, String, String)}: uri, link, title */
+	protected String getItemKey(IFeedItem item) {
+		if (!StringTools.isBlankOrNull(item.getUri())) {
+			return "uri:" + UrlTools.normalizeLink(item.getUri());
+		}
+		else if (!StringTools.isBlankOrNull(item.getLink())) {
+			return "link:" + UrlTools.normalizeLink(item.getLink());
+		}
+		else if (!StringTools.isBlankOrNull(item.getTitle())) {
+			return "title:" + item.getTitle().trim();
+		}
+		return null;
+	}
+
+	protected List<String> getItemKeys(IFeedItem item) {
+		List<String> keys = new ArrayList<>(3);
+		if (!StringTools.isBlankOrNull(item.getUri())) {
+			keys.add("uri:" + UrlTools.normalizeLink(item.getUri()));
+		}
+		if (!StringTools.isBlankOrNull(item.getLink())) {
+			keys.add("link:" + UrlTools.normalizeLink(item.getLink()));
 		}
+		if (!StringTools.isBlankOrNull(item.getTitle())) {
+			keys.add("title:" + item.getTitle().trim());
+		}
+		return keys;
+	}
+
+	/** Value of the feed_link and feed_uri compound index fields */
+	protected String getCompoundKey(String feedId, String link) {
+		return feedId + COMPOUND_KEY_SEPARATOR + UrlTools.normalizeLink(link);
 	}
 
 	protected IFeed buildFeed(Map<String,Object> m) {
@@ -745,32 +2633,61 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 			feed.setCategories(getStr(m, FeedProperty.CATEGORIES, null));
 			feed.setUpdated(getDate(m, FeedProperty.UPDATED, DEFAULT_DATE_MIN));
 			feed.setUri(getStr(m, FeedProperty.URI, null));
+			feed.setETag(getStr(m, FeedProperty.ETAG, null));
+			feed.setLastModified(getStr(m, FeedProperty.LAST_MODIFIED, null));
+			feed.setBodyHash(getStr(m, FeedProperty.BODY_HASH, null));
+			feed.setWatermark(getDate(m, FeedProperty.WATERMARK, null));
+			Object itemCount = get(m, FeedProperty.ITEM_COUNT);
+			feed.setItemCount(itemCount instanceof Number ? ((Number) itemCount).intValue() : -1);
+			feed.setRecentFingerprints(getStrList(m, FeedProperty.RECENT_FINGERPRINTS));
 		}
 		return feed;
 	}
 
+	/**
+	 * Fields left out of a projection are empty
+	 */
 	protected IFeedItem buildFeedItem(Map<String,Object> m, boolean loadContent) {
 		IFeedItem item = null;
 		if (m != null) {
 			item = new FeedItemImpl(
 					get(m, FeedItemProperty.GEN_ID).toString(),
-					get(m, FeedItemProperty.FEED_ID).toString(),
-					get(m, FeedItemProperty.TITLE).toString(),
-					(loadContent ? get(m, FeedItemProperty.CONTENT).toString() : ""),
-					get(m, FeedItemProperty.LINK).toString(),
-					get(m, FeedItemProperty.AUTHOR).toString(),
+					getStr(m, FeedItemProperty.FEED_ID, null),
+					getStr(m, FeedItemProperty.TITLE, ""),
+					(loadContent ? getStr(m, FeedItemProperty.CONTENT, "") : ""),
+					getStr(m, FeedItemProperty.LINK, ""),
+					getStr(m, FeedItemProperty.AUTHOR, ""),
 					getStr(m, FeedItemProperty.URI, null),
 					getDate(m, FeedItemProperty.PUBLISHED, DEFAULT_DATE_MIN),
 					getDate(m, FeedItemProperty.CREATED, DEFAULT_DATE_MIN),
 					getDate(m, FeedItemProperty.UPDATED, null));
+			item.setFingerprint(getStr(m, FeedItemProperty.FINGERPRINT, null));
 		}
 		return item;
 	}
 
+	protected List<String> getFieldNames(Set<FeedItemProperty> fields) {
+		Set<String> names = new HashSet<>();
+		names.add(FeedItemProperty.GEN_ID.toString());
+		names.add(FeedItemProperty.FEED_ID.toString());
+		for (FeedItemProperty field : fields) {
+			if (field != FeedItemProperty.TABLE_NAME) {
+				names.add(field.toString());
+			}
+		}
+		return new ArrayList<>(names);
+	}
+
 	protected Map<String, Object> createMap(IFeedItem item, String feedId) {
 		Map<String, Object> values = new HashMap<>();
 		putStr(values, FeedItemProperty.LINK, item.getLink()); // links are case sensitive
 		putNonBlankStr(values, FeedItemProperty.URI, item.getUri());
+		if (!StringTools.isBlankOrNull(item.getLink())) {
+			put(values, FeedItemProperty.FEED_LINK, getCompoundKey(feedId, item.getLink()));
+		}
+		if (!StringTools.isBlankOrNull(item.getUri())) {
+			put(values, FeedItemProperty.FEED_URI, getCompoundKey(feedId, item.getUri()));
+		}
 		putStr(values, FeedItemProperty.TITLE, item.getTitle());
 		putStr(values, FeedItemProperty.CONTENT, item.getContent());
 		putStr(values, FeedItemProperty.AUTHOR, item.getAuthor());
@@ -780,9 +2697,31 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 			put(values, FeedItemProperty.CREATED, System.currentTimeMillis());
 		}
 		putDate(values, FeedItemProperty.UPDATED, item.getUpdatedDate(), null);
+		put(values, FeedItemProperty.FINGERPRINT, getFingerprint(item));
 		return values;
 	}
 
+	/**
+	 * Hash of the fields that are shown to users, the value is kept on the item once computed
+	 */
+	protected String getFingerprint(IFeedItem item) {
+		if (item.getFingerprint() == null) {
+			StringBuilder builder = new StringBuilder();
+			for (String field : Arrays.asList(item.getTitle(), item.getContent(), item.getLink(), item.getAuthor(), item.getUri())) {
+				builder.append(StringTools.nullToEmpty(field)).append('\0');
+			}
+			item.setFingerprint(HashTools.hash(builder.toString()));
+		}
+		return item.getFingerprint();
+	}
+
+	/**
+	 * Fetched item differs from the stored one, stored items without a fingerprint are always updated
+	 */
+	protected boolean isChanged(IFeedItem item, IFeedItem existingItem) {
+		return !areEquals(getFingerprint(item), existingItem.getFingerprint());
+	}
+
 	@SuppressWarnings({ "hiding", "unchecked", "rawtypes" })
 	protected <String,V> Map<String,V> getMap(Enum key, V val) {
 		Map<String, V> map = new HashMap<String, V>();
@@ -801,7 +2740,19 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 
 	protected Date getDate(Map<String,Object> m, ITable property, Date defaultVal) {
 		Object prop = m.get(property.toString());
-		return prop == null ? defaultVal : new Date(((Double)prop).longValue());
+		return prop == null ? defaultVal : new Date(((Number)prop).longValue());
+	}
+
+	@SuppressWarnings("unchecked")
+	protected List<String> getStrList(Map<String,Object> m, ITable property) {
+		List<String> list = new ArrayList<>();
+		Object prop = m.get(property.toString());
+		if (prop instanceof List) {
+			for (Object value : (List<Object>) prop) {
+				list.add(StringTools.nullToEmpty(value));
+			}
+		}
+		return list;
 	}
 
 	protected Object putStr(Map<String,Object> m, ITable property, String val) {
@@ -823,14 +2774,4 @@ public abstract class RethinkDBDAO extends CommonReader implements IFeedReader {
 		return m.put(property.toString(), val == null ? defaultDate.getTime() : val.getTime());
 	}
 
-	private Function getLinkMatch(final FeedItemProperty property, String link) {
-		final String regExpLink = ("\\Q" + UrlTools.stripProtocol(link) + "\\E");
-		return new Function() {
-			@Override
-			public RqlQuery apply(Var var) {
-				return new GetField(var, property.toString()).match(regExpLink);
-			}
-		};
-	}
-
 }
@@ -0,0 +1,39 @@
+package com.foobarsite.rss.server;
+
+import com.dkhenry.RethinkDB.RqlConnection;
+import com.dkhenry.RethinkDB.errors.RqlDriverException;
+
+/**
+ * Bounded pool of RethinkDB connections, see {@link ConnectionPool}
+ */
+public class RqlConnectionPool extends ConnectionPool<RqlConnection> {
+
+	public interface IConnectionFactory {
+		RqlConnection create() throws RqlDriverException;
+		boolean validate(RqlConnection connection);
+	}
+
+	public RqlConnectionPool(IConnectionFactory factory, int minSize, int maxSize) {
+		this(factory, minSize, maxSize, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_VALIDATE_AFTER_MILLIS);
+	}
+
+	public RqlConnectionPool(final IConnectionFactory factory, int minSize, int maxSize, long maxIdleMillis, long borrowTimeoutMillis, long validateAfterMillis) {
+		super(new ConnectionPool.IConnectionFactory<RqlConnection>() {
+			@Override
+			public RqlConnection create() throws RqlDriverException {
+				return factory.create();
+			}
+
+			@Override
+			public boolean validate(RqlConnection connection) {
+				return factory.validate(connection);
+			}
+
+			@Override
+			public void close(RqlConnection connection) throws RqlDriverException {
+				connection.close();
+			}
+		}, minSize, maxSize, maxIdleMillis, borrowTimeoutMillis, validateAfterMillis);
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.foobarsite.rss.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs one task per key at a time. Callers asking for a key whose task is still running get the
+ * result of that task instead of starting their own, waiting for it at most the wait timeout.
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, ListenableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("single-flight-timer-%d").setDaemon(true).build());
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong joined = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private volatile long waitTimeoutMillis;
+
+	/**
+	 * @param waitTimeoutMillis how long callers wait for a task started by someone else, 0 waits forever
+	 */
+	public SingleFlight(long waitTimeoutMillis) {
+		this.waitTimeoutMillis = waitTimeoutMillis;
+	}
+
+	public void setWaitTimeout(long waitTimeoutMillis) {
+		this.waitTimeoutMillis = waitTimeoutMillis;
+	}
+
+	/**
+	 * Starts the task unless a task for the key is running already
+	 * @return result of the task, fails with a TimeoutException if a shared result takes too long
+	 */
+	public ListenableFuture<V> run(final K key, Callable<ListenableFuture<V>> task) {
+		final SettableFuture<V> leader = SettableFuture.create();
+		ListenableFuture<V> existing = inFlight.putIfAbsent(key, leader);
+		if (existing != null) {
+			joined.incrementAndGet();
+			return join(key, existing);
+		}
+
+		started.incrementAndGet();
+		try {
+			Futures.addCallback(task.call(), new FutureCallback<V>() {
+				@Override
+				public void onSuccess(V result) {
+					inFlight.remove(key, leader);
+					leader.set(result);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					inFlight.remove(key, leader);
+					leader.setException(t);
+				}
+			});
+		} catch (Exception e) {
+			inFlight.remove(key, leader);
+			leader.setException(e);
+		}
+		return leader;
+	}
+
+	private ListenableFuture<V> join(final K key, ListenableFuture<V> existing) {
+		long timeout = waitTimeoutMillis;
+		if (timeout <= 0) {
+			return existing;
+		}
+		final SettableFuture<V> joiner = SettableFuture.create();
+		Futures.addCallback(existing, new FutureCallback<V>() {
+			@Override
+			public void onSuccess(V result) {
+				joiner.set(result);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				joiner.setException(t);
+			}
+		});
+		final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (joiner.setException(new TimeoutException("Timed out waiting for the running task of " + key))) {
+					timedOut.incrementAndGet();
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		joiner.addListener(new Runnable() {
+			@Override
+			public void run() {
+				expiry.cancel(false);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return joiner;
+	}
+
+	public void close() {
+		timer.shutdownNow();
+	}
+
+	/** Keys with a running task */
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	/** Tasks started */
+	public long getStarted() {
+		return started.get();
+	}
+
+	/** Callers that got the result of a task started by someone else */
+	public long getJoined() {
+		return joined.get();
+	}
+
+	/** Callers that gave up waiting for a shared result */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight [inFlight=" + inFlight.size() + ", started=" + started.get() + ", joined=" + joined.get()
+				+ ", timedOut=" + timedOut.get() + "]";
+	}
+
+}
@@ -0,0 +1,470 @@
+package com.foobarsite.rss.server;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.foobarsite.rss.common.DateTools;
+import com.foobarsite.rss.common.StringTools;
+import com.foobarsite.rss.feed.IFeed;
+import com.foobarsite.rss.feed.IFeedItem;
+import com.foobarsite.rss.feed.impl.FeedItemImpl;
+import com.rometools.rome.io.impl.DateParser;
+
+/**
+ * Reads RSS 2.0 and Atom 1.0 feeds with StAX one entry at a time instead of building a document
+ * of the whole feed. Reading stops after maxEntries entries or once it reaches entries at or
+ * below the watermark of the feed, other formats are left to ROME.
+ */
+public class StreamingFeedParser {
+	public static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+	public static final String CONTENT_NS = "http://purl.org/rss/1.0/modules/content/";
+	public static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+	public enum Result {
+		/** Not RSS 2.0 or Atom, nothing was read */
+		UNSUPPORTED,
+		/** All entries were read */
+		COMPLETE,
+		/** Reading stopped at the entry limit or the watermark */
+		STOPPED
+	}
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	/** Entries of one parse, applied to the feed only when the whole parse succeeds */
+	private static class State {
+		private final IFeed feed;
+		private final List<IFeedItem> items = new ArrayList<>();
+		private final StringBuilder categories = new StringBuilder();
+		private String title;
+		private String description;
+		private String author;
+		private String copyright;
+		private String imageUrl;
+		private String language;
+		private int known = 0;
+		private boolean stopped = false;
+
+		private State(IFeed feed) {
+			this.feed = feed;
+		}
+	}
+
+	private final int maxEntries;
+	private final int knownEntriesToStop;
+
+	/**
+	 * @param maxEntries entries read from one feed
+	 * @param knownEntriesToStop consecutive entries at or below the watermark after which reading stops,
+	 * more than one keeps going past a few old entries in feeds that aren't sorted by date
+	 */
+	public StreamingFeedParser(int maxEntries, int knownEntriesToStop) {
+		if (maxEntries < 1 || knownEntriesToStop < 1) {
+			throw new IllegalArgumentException("Invalid entry limit " + maxEntries + " or known entries " + knownEntriesToStop);
+		}
+		this.maxEntries = maxEntries;
+		this.knownEntriesToStop = knownEntriesToStop;
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Adds the entries to the new items of the feed and sets its metadata. Nothing is changed if
+	 * the format isn't supported or the document is malformed.
+	 */
+	public Result parse(Reader input, IFeed feed) throws XMLStreamException {
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(input);
+		try {
+			while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+				// Skip the prolog
+			}
+			if (!reader.isStartElement()) {
+				return Result.UNSUPPORTED;
+			}
+			State state = new State(feed);
+			if ("rss".equals(reader.getLocalName()) && isBlank(reader.getNamespaceURI())) {
+				parseRss(reader, state);
+			}
+			else if ("feed".equals(reader.getLocalName()) && ATOM_NS.equals(reader.getNamespaceURI())) {
+				parseAtom(reader, state);
+			}
+			else {
+				return Result.UNSUPPORTED;
+			}
+			apply(state);
+			return state.stopped ? Result.STOPPED : Result.COMPLETE;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void apply(State state) {
+		IFeed feed = state.feed;
+		feed.getNewFeedItems().addAll(state.items);
+		if (!StringTools.isBlankOrNull(state.title)) {
+			feed.setName(state.title);
+		}
+		feed.setDescription(state.description);
+		feed.setAuthor(state.author);
+		feed.setCopyright(state.copyright);
+		if (state.imageUrl != null) {
+			feed.setImageUrl(state.imageUrl);
+		}
+		feed.setLanguage(state.language);
+		if (state.categories.length() > 0) {
+			feed.setCategories(state.categories.toString());
+		}
+	}
+
+	private void parseRss(XMLStreamReader reader, State state) throws XMLStreamException {
+		while (!state.stopped && nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if ("channel".equals(reader.getLocalName())) {
+				parseChannel(reader, state);
+			}
+			else {
+				skip(reader);
+			}
+		}
+	}
+
+	private void parseChannel(XMLStreamReader reader, State state) throws XMLStreamException {
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if (!isBlank(reader.getNamespaceURI())) {
+				skip(reader);
+				continue;
+			}
+			switch (reader.getLocalName()) {
+			case "title":
+				state.title = readText(reader);
+				break;
+			case "description":
+				state.description = readText(reader);
+				break;
+			case "managingEditor":
+				state.author = readText(reader);
+				break;
+			case "copyright":
+				state.copyright = readText(reader);
+				break;
+			case "language":
+				state.language = readText(reader);
+				break;
+			case "category":
+				state.categories.append(readText(reader)).append(";");
+				break;
+			case "image":
+				parseImage(reader, state);
+				break;
+			case "item":
+				parseRssItem(reader, state);
+				if (state.stopped) {
+					return;
+				}
+				break;
+			default:
+				skip(reader);
+			}
+		}
+	}
+
+	private void parseImage(XMLStreamReader reader, State state) throws XMLStreamException {
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if ("url".equals(reader.getLocalName())) {
+				state.imageUrl = readText(reader);
+			}
+			else {
+				skip(reader);
+			}
+		}
+	}
+
+	private void parseRssItem(XMLStreamReader reader, State state) throws XMLStreamException {
+		String title = null, link = null, description = null, encoded = null, author = null, guid = null;
+		String creator = null, dcDescription = null;
+		Date published = null, dcDate = null, updated = null;
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			String ns = reader.getNamespaceURI();
+			String name = reader.getLocalName();
+			if (isBlank(ns)) {
+				switch (name) {
+				case "title":
+					title = readText(reader);
+					break;
+				case "link":
+					link = readText(reader);
+					break;
+				case "description":
+					description = readContent(reader);
+					break;
+				case "author":
+					author = readText(reader);
+					break;
+				case "guid":
+					guid = readText(reader);
+					break;
+				case "pubDate":
+					published = parseDate(readText(reader));
+					break;
+				default:
+					skip(reader);
+				}
+			}
+			else if (CONTENT_NS.equals(ns) && "encoded".equals(name)) {
+				encoded = readContent(reader);
+			}
+			else if (DC_NS.equals(ns) && "creator".equals(name)) {
+				creator = readText(reader);
+			}
+			else if (DC_NS.equals(ns) && "date".equals(name)) {
+				dcDate = parseDate(readText(reader));
+			}
+			else if (DC_NS.equals(ns) && "description".equals(name)) {
+				dcDescription = readContent(reader);
+			}
+			else if (ATOM_NS.equals(ns) && "updated".equals(name)) {
+				updated = parseDate(readText(reader));
+			}
+			else {
+				skip(reader);
+			}
+		}
+		// RSS elements come before their Dublin Core counterparts whatever their order in the item
+		String content = encoded != null ? encoded : description;
+		if (StringTools.isBlankOrNull(StringTools.trim(content))) {
+			content = dcDescription;
+		}
+		addEntry(state, title, content, link, StringTools.isBlankOrNull(StringTools.trim(author)) ? creator : author,
+				guid == null ? link : guid, published == null ? dcDate : published, updated);
+	}
+
+	private void parseAtom(XMLStreamReader reader, State state) throws XMLStreamException {
+		state.language = reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if (!ATOM_NS.equals(reader.getNamespaceURI())) {
+				skip(reader);
+				continue;
+			}
+			switch (reader.getLocalName()) {
+			case "title":
+				state.title = readText(reader);
+				break;
+			case "subtitle":
+				state.description = readText(reader);
+				break;
+			case "rights":
+				state.copyright = readText(reader);
+				break;
+			case "logo":
+				state.imageUrl = readText(reader);
+				break;
+			case "author":
+				String name = readAtomAuthor(reader);
+				if (state.author == null) {
+					state.author = name;
+				}
+				break;
+			case "category":
+				state.categories.append(StringTools.nullToEmpty(reader.getAttributeValue(null, "term"))).append(";");
+				skip(reader);
+				break;
+			case "entry":
+				parseAtomEntry(reader, state);
+				if (state.stopped) {
+					return;
+				}
+				break;
+			default:
+				skip(reader);
+			}
+		}
+	}
+
+	private void parseAtomEntry(XMLStreamReader reader, State state) throws XMLStreamException {
+		String title = null, link = null, content = null, summary = null, author = null, id = null;
+		Date published = null, updated = null;
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if (!ATOM_NS.equals(reader.getNamespaceURI())) {
+				skip(reader);
+				continue;
+			}
+			switch (reader.getLocalName()) {
+			case "title":
+				title = readText(reader);
+				break;
+			case "link":
+				String rel = reader.getAttributeValue(null, "rel");
+				if (link == null && (rel == null || "alternate".equals(rel))) {
+					link = StringTools.trim(reader.getAttributeValue(null, "href"));
+				}
+				skip(reader);
+				break;
+			case "content":
+				content = readContent(reader);
+				break;
+			case "summary":
+				summary = readContent(reader);
+				break;
+			case "author":
+				String name = readAtomAuthor(reader);
+				if (author == null) {
+					author = name;
+				}
+				break;
+			case "id":
+				id = readText(reader);
+				break;
+			case "published":
+				published = parseDate(readText(reader));
+				break;
+			case "updated":
+				updated = parseDate(readText(reader));
+				break;
+			default:
+				skip(reader);
+			}
+		}
+		addEntry(state, title, content != null ? content : summary, link, author, id, published, updated);
+	}
+
+	private String readAtomAuthor(XMLStreamReader reader) throws XMLStreamException {
+		String name = null;
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if ("name".equals(reader.getLocalName())) {
+				name = readText(reader);
+			}
+			else {
+				skip(reader);
+			}
+		}
+		return name;
+	}
+
+	private void addEntry(State state, String title, String content, String link, String author, String uri, Date published, Date updated) {
+		Date publishDate = published == null ? DateTools.DEFAULT_DATE_MIN : published;
+		state.items.add(new FeedItemImpl("", state.feed.getGenId(), StringTools.nullToEmpty(title), StringTools.nullToEmpty(content),
+				StringTools.nullToEmpty(link), StringTools.nullToEmpty(author), StringTools.nullToEmpty(uri), publishDate, new Date(), updated));
+
+		Date watermark = state.feed.getWatermark();
+		if (watermark != null && publishDate.after(DateTools.DEFAULT_DATE_MIN) && !publishDate.after(watermark)) {
+			state.known++;
+		}
+		else {
+			state.known = 0;
+		}
+		state.stopped = state.items.size() >= maxEntries || state.known >= knownEntriesToStop;
+	}
+
+	private static Date parseDate(String value) {
+		return StringTools.isBlankOrNull(value) ? null : DateParser.parseDate(value, Locale.US);
+	}
+
+	/** Moves to the next start tag or to the end tag of the current element */
+	private static int nextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+				return event;
+			}
+		}
+		throw new XMLStreamException("Unexpected end of document");
+	}
+
+	/** Moves to the end tag of the current element */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			depth += nextElement(reader) == XMLStreamConstants.START_ELEMENT ? 1 : -1;
+		}
+	}
+
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+		return StringTools.trim(readContent(reader));
+	}
+
+	/**
+	 * Text of the current element, child elements like Atom xhtml content are kept as markup
+	 */
+	private static String readContent(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder builder = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			if (!reader.hasNext()) {
+				throw new XMLStreamException("Unexpected end of document");
+			}
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				builder.append('<').append(reader.getLocalName());
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					builder.append(' ').append(reader.getAttributeLocalName(i)).append("=\"");
+					escape(builder, reader.getAttributeValue(i));
+					builder.append('"');
+				}
+				builder.append('>');
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				if (depth > 0) {
+					builder.append("</").append(reader.getLocalName()).append('>');
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (depth == 1) {
+					builder.append(reader.getText());
+				}
+				else {
+					escape(builder, reader.getText());
+				}
+				break;
+			default:
+				// Comments and processing instructions
+			}
+		}
+		return builder.toString();
+	}
+
+	private static void escape(StringBuilder builder, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				builder.append("&amp;");
+				break;
+			case '<':
+				builder.append("&lt;");
+				break;
+			case '>':
+				builder.append("&gt;");
+				break;
+			case '"':
+				builder.append("&quot;");
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+	}
+
+	private static boolean isBlank(String namespace) {
+		return namespace == null || namespace.isEmpty();
+	}
+
+}
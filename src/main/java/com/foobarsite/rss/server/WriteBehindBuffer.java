@@ -0,0 +1,181 @@
+package com.foobarsite.rss.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pending document updates keyed by id. Updates of the same id are merged until the buffer is
+ * flushed, which happens every maxDelayMillis, when maxPending ids are waiting or on an explicit
+ * {@link #flush()}. Flushes run one at a time so that updates reach the writer in order.
+ */
+public class WriteBehindBuffer {
+	public static final Logger LOG = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+	public interface IWriter {
+		/**
+		 * @param documents merged updates, each containing its id
+		 * @return false if the documents weren't written and should be kept for the next flush
+		 */
+		boolean write(List<Map<String,Object>> documents);
+	}
+
+	private final IWriter writer;
+	private final String idField;
+	private final int maxPending;
+	private final Object flushLock = new Object();
+	private final ScheduledExecutorService flusher;
+	private final AtomicLong added = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private LinkedHashMap<String, Map<String,Object>> pending = new LinkedHashMap<>();
+	private boolean closed = false;
+
+	public WriteBehindBuffer(IWriter writer, String idField, int maxPending, long maxDelayMillis) {
+		if (maxPending < 1 || maxDelayMillis < 1) {
+			throw new IllegalArgumentException("Invalid buffer size " + maxPending + " or delay " + maxDelayMillis);
+		}
+		this.writer = writer;
+		this.idField = idField;
+		this.maxPending = maxPending;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "write-behind-flusher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues the update, fields of an update already waiting for the same id are overwritten.
+	 * The calling thread flushes the buffer when it's full.
+	 * @return false if the buffer is closed
+	 */
+	public boolean add(String id, Map<String,Object> values) {
+		boolean full;
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			Map<String,Object> merged = pending.get(id);
+			if (merged == null) {
+				merged = new HashMap<>();
+				pending.put(id, merged);
+			}
+			else {
+				coalesced.incrementAndGet();
+			}
+			merged.putAll(values);
+			merged.put(idField, id);
+			full = pending.size() >= maxPending;
+		}
+		added.incrementAndGet();
+		if (full) {
+			flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the pending update of a document, e.g. when it's deleted
+	 */
+	public synchronized boolean remove(String id) {
+		return pending.remove(id) != null;
+	}
+
+	/**
+	 * Writes all pending updates
+	 * @return number of documents written
+	 */
+	public int flush() {
+		synchronized (flushLock) {
+			LinkedHashMap<String, Map<String,Object>> batch;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return 0;
+				}
+				batch = pending;
+				pending = new LinkedHashMap<>();
+			}
+			if (writer.write(new ArrayList<>(batch.values()))) {
+				written.addAndGet(batch.size());
+				return batch.size();
+			}
+			requeue(batch);
+			LOG.warn("Failed to write {} buffered updates, keeping them for the next flush", batch.size());
+			return 0;
+		}
+	}
+
+	/** Puts failed updates back under the updates that arrived while they were written */
+	private synchronized void requeue(LinkedHashMap<String, Map<String,Object>> batch) {
+		for (Map.Entry<String, Map<String,Object>> newer : pending.entrySet()) {
+			Map<String,Object> older = batch.get(newer.getKey());
+			if (older == null) {
+				batch.put(newer.getKey(), newer.getValue());
+			}
+			else {
+				older.putAll(newer.getValue());
+			}
+		}
+		pending = batch;
+	}
+
+	/**
+	 * Stops the periodic flush and writes what is still pending, later updates are refused
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		flusher.shutdownNow();
+		flush();
+		int lost = getQueueDepth();
+		if (lost > 0) {
+			LOG.error("Write behind buffer closed with {} updates that couldn't be written", lost);
+		}
+		LOG.info("Write behind buffer closed, {}", this);
+	}
+
+	public synchronized int getQueueDepth() {
+		return pending.size();
+	}
+
+	/** Updates that were merged into an update already waiting for the same id */
+	public long getWritesSaved() {
+		return coalesced.get();
+	}
+
+	public long getAdded() {
+		return added.get();
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindBuffer [pending=" + getQueueDepth() + ", added=" + added.get() + ", saved=" + coalesced.get()
+				+ ", written=" + written.get() + "]";
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.foobarsite.rss.server;
+
+/**
+ * How a write is acknowledged. Soft writes are acknowledged once they are in memory on the
+ * server, {@link RethinkDBDAO#sync()} flushes them to disk.
+ */
+public enum WritePolicy {
+	/** Wait until the write is on disk, the server default */
+	HARD("hard", false),
+	/** Wait until the write is in memory */
+	SOFT("soft", false),
+	/**
+	 * Soft write that the caller doesn't wait for, failures are only logged. Writes that need
+	 * their reply, inserts returning generated keys and deletes adjusting counters, still wait.
+	 */
+	NOREPLY("soft", true);
+
+	/** DAO writes that can have their own policy */
+	public enum Operation {
+		SAVE_FEED,
+		SAVE_ITEMS,
+		SAVE_ITEM,
+		DELETE_ITEM,
+		/** Bulk updates like the trim jobs */
+		MAINTENANCE
+	}
+
+	public static final String OPTARG_DURABILITY = "durability";
+
+	private final String durability;
+	private final boolean noreply;
+
+	private WritePolicy(String durability, boolean noreply) {
+		this.durability = durability;
+		this.noreply = noreply;
+	}
+
+	public String getDurability() {
+		return durability;
+	}
+
+	public boolean isNoreply() {
+		return noreply;
+	}
+
+}
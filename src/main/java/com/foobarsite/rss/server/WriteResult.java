@@ -0,0 +1,94 @@
+package com.foobarsite.rss.server;
+
+import java.util.Map;
+
+/**
+ * Counts of a RethinkDB write result document
+ */
+public class WriteResult {
+	public static final String ATTR_INSERTED = "inserted";
+	public static final String ATTR_DELETED = "deleted";
+	public static final String ATTR_FIRST_ERROR = "first_error";
+
+	private int inserted;
+	private int replaced;
+	private int unchanged;
+	private int skipped;
+	private int deleted;
+	private int errors;
+	private String firstError;
+
+	public static WriteResult from(Map<String,Object> m) {
+		WriteResult result = new WriteResult();
+		if (m != null) {
+			result.inserted = getInt(m, ATTR_INSERTED);
+			result.replaced = getInt(m, RethinkDBDAO.ATTR_REPLACED);
+			result.unchanged = getInt(m, RethinkDBDAO.ATTR_UNCHANGED);
+			result.skipped = getInt(m, RethinkDBDAO.ATTR_SKIPPED);
+			result.deleted = getInt(m, ATTR_DELETED);
+			result.errors = getInt(m, RethinkDBDAO.ATTR_ERRORS);
+			Object firstError = m.get(ATTR_FIRST_ERROR);
+			result.firstError = firstError == null ? null : firstError.toString();
+		}
+		return result;
+	}
+
+	public WriteResult add(WriteResult other) {
+		inserted += other.inserted;
+		replaced += other.replaced;
+		unchanged += other.unchanged;
+		skipped += other.skipped;
+		deleted += other.deleted;
+		errors += other.errors;
+		if (firstError == null) {
+			firstError = other.firstError;
+		}
+		return this;
+	}
+
+	private static int getInt(Map<String,Object> m, String key) {
+		Object value = m.get(key);
+		return value instanceof Number ? ((Number) value).intValue() : 0;
+	}
+
+	public int getInserted() {
+		return inserted;
+	}
+
+	public int getReplaced() {
+		return replaced;
+	}
+
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public int getSkipped() {
+		return skipped;
+	}
+
+	public int getDeleted() {
+		return deleted;
+	}
+
+	public int getErrors() {
+		return errors;
+	}
+
+	public String getFirstError() {
+		return firstError;
+	}
+
+	/** Documents that were found, whether they changed or not */
+	public int getMatched() {
+		return replaced + unchanged + errors;
+	}
+
+	@Override
+	public String toString() {
+		return "WriteResult [inserted=" + inserted + ", replaced=" + replaced + ", unchanged=" + unchanged
+				+ ", skipped=" + skipped + ", deleted=" + deleted + ", errors=" + errors
+				+ (firstError == null ? "" : ", firstError=" + firstError) + "]";
+	}
+
+}
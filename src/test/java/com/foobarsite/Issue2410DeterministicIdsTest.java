@@ -0,0 +1,16 @@
+package com.foobarsite;
+
+import com.foobarsite.rss.server.RethinkDBDAO;
+
+/**
+ * {@link Issue2410Test} with feed and item ids derived from their urls
+ */
+public class Issue2410DeterministicIdsTest extends Issue2410Test {
+
+	@Override
+	protected void configure(RethinkDBDAO reader) {
+		reader.setDeterministicFeedIds(true);
+		reader.setDeterministicItemIds(true);
+	}
+
+}
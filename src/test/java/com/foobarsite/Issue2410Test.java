@@ -10,8 +10,14 @@ import java.io.FileReader;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -24,9 +30,15 @@ import com.dkhenry.RethinkDB.RqlConnection;
 import com.dkhenry.RethinkDB.errors.RqlDriverException;
 import com.foobarsite.rss.common.StringTools;
 import com.foobarsite.rss.feed.IFeed;
+import com.foobarsite.rss.feed.IFeedItem;
 import com.foobarsite.rss.feed.desc.FeedItemProperty;
 import com.foobarsite.rss.feed.desc.FeedProperty;
+import com.foobarsite.rss.feed.desc.StatsProperty;
 import com.foobarsite.rss.feed.desc.UserFeedProperty;
+import com.foobarsite.rss.feed.impl.FeedImpl;
+import com.foobarsite.rss.feed.impl.FeedItemImpl;
+import com.foobarsite.rss.server.DuplicateReport;
+import com.foobarsite.rss.server.IBatchHandler;
 import com.foobarsite.rss.server.IFeedReader;
 import com.foobarsite.rss.server.RethinkDBDAO;
 import com.google.common.collect.Lists;
@@ -93,14 +105,20 @@ public class Issue2410Test extends FeedServer {
 			}
 		};
 
+		configure((RethinkDBDAO) reader);
+
 		try {
 			RqlConnection r = RqlConnection.connect(dbServerHost, dbServerPort);
 			r.run(r.db_create(reader.getDbName()));
 			r.run(r.db(reader.getDbName()).table_create(FeedItemProperty.TABLE_NAME));
 			r.run(r.db(reader.getDbName()).table_create(FeedProperty.TABLE_NAME));
 			r.run(r.db(reader.getDbName()).table_create(UserFeedProperty.TABLE_NAME));
+			r.run(r.db(reader.getDbName()).table_create(StatsProperty.TABLE_NAME));
 			r.run(r.db(reader.getDbName()).table(FeedProperty.TABLE_NAME).index_create(FeedProperty.URL.toString())); // r.table('blog').indexCreate("url")
+			r.run(r.db(reader.getDbName()).table(FeedProperty.TABLE_NAME).index_create(FeedProperty.NEXT_FETCH.toString())); // r.table('blog').indexCreate("nextfetch")
 			r.run(r.db(reader.getDbName()).table(FeedItemProperty.TABLE_NAME).index_create(FeedItemProperty.FEED_ID.toString())); // r.table('blog_item').indexCreate("feed_id")
+			r.run(r.db(reader.getDbName()).table(FeedItemProperty.TABLE_NAME).index_create(FeedItemProperty.FEED_LINK.toString())); // r.table('blog_item').indexCreate("feed_link")
+			r.run(r.db(reader.getDbName()).table(FeedItemProperty.TABLE_NAME).index_create(FeedItemProperty.FEED_URI.toString())); // r.table('blog_item').indexCreate("feed_uri")
 			r.run(r.db(reader.getDbName()).table(UserFeedProperty.TABLE_NAME).index_create(UserFeedProperty.FEED_ID.toString())); // r.table('userblog').indexCreate("feed_id")
 			r.close();
 		} catch (RqlDriverException e) {
@@ -108,6 +126,12 @@ public class Issue2410Test extends FeedServer {
 		}
 	}
 
+	/**
+	 * Reader options of the test run, the defaults are tested here
+	 */
+	protected void configure(RethinkDBDAO reader) {
+	}
+
 	@Test
 	public void testCase1() {
 		assertNotNull("HTTP server should not be null", server);
@@ -134,6 +158,17 @@ public class Issue2410Test extends FeedServer {
 		feedsToSave.clear();
 
 		List<String> feedIds = reader.getProperties(FeedProperty.TABLE_NAME.getId());
+		RethinkDBDAO dao = (RethinkDBDAO) reader;
+		assertEquals("1. Feed counter should equal the feeds saved", feedIds.size(), reader.getRowCountFor(FeedProperty.TABLE_NAME));
+		assertEquals("1. Item counter should be zero before the first fetch", 0, reader.getRowCountFor(FeedItemProperty.TABLE_NAME));
+		assertEquals("1. New feeds should be due", new HashSet<>(feedIds), new HashSet<>(reader.getDueFeedIds(feedIds.size() + 1)));
+		if (!feedIds.isEmpty()) {
+			String url = reader.loadFeeds(feedIds.subList(0, 1), false).get(0).getUrl();
+			reader.loadFeed(url);
+			long hits = dao.getFeedUrlCacheStats().hitCount();
+			assertEquals("1. Feed should be found by its url", feedIds.get(0), reader.loadFeed(url).getGenId());
+			assertEquals("1. Feed should be loaded from the cache", hits + 1, dao.getFeedUrlCacheStats().hitCount());
+		}
 
 		// 2. Trim slashes
 		List<List<String>> idSublists = Lists.partition(feedIds, partitionSize);
@@ -160,16 +195,35 @@ public class Issue2410Test extends FeedServer {
 			} catch (InterruptedException e) {
 				fail(e.getMessage());
 			}
+			if (i == 0) {
+				assertTrue("3. Fetched feeds should not be due", reader.getDueFeedIds(feedIds.size() + 1).isEmpty());
+			}
+			int itemCount = reader.getRowCountFor(FeedItemProperty.TABLE_NAME);
+			assertEquals("3. Item counter should equal the item count", reader.recountRowsFor(FeedItemProperty.TABLE_NAME), itemCount);
+			if (!feedIds.isEmpty()) {
+				int feedItemCount = reader.getItemCountFor(feedIds.get(0));
+				assertEquals("3. Feed item counter should equal the item count", reader.recountItemsFor(feedIds.get(0)), feedItemCount);
+			}
 
 			reader.setFetchInterval(0, 0, 0);
+			assertEquals("3. Next fetch should be recomputed for all feeds", feedIds.size(), reader.recomputeNextFetch(true));
+			Set<String> canUpdate = new HashSet<>();
+			for (String id : feedIds) {
+				if (reader.canUpdate(id).getValue1()) {
+					canUpdate.add(id);
+				}
+			}
+			assertEquals("3. Due feeds should be the feeds that can be updated", canUpdate, new HashSet<>(reader.getDueFeedIds(feedIds.size() + 1)));
 
 			// 4. Trim whitespace
-			List<String> itemIds = reader.getProperties(FeedItemProperty.TABLE_NAME.getId());
-			List<List<String>> itemIdSublists = Lists.partition(itemIds, partitionSize);
 			final ExecutorService executorService4 = Executors.newFixedThreadPool(threadCount);
-			for (List<String> sub : itemIdSublists) {
-				executorService4.submit(new TrimWhitespace(sub, reader));
-			}
+			reader.getProperties(FeedItemProperty.TABLE_NAME.getId(), partitionSize, new IBatchHandler<String>() {
+				@Override
+				public boolean handle(List<String> batch) {
+					executorService4.submit(new TrimWhitespace(batch, reader));
+					return true;
+				}
+			});
 			executorService4.shutdown();
 			try {
 				executorService4.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
@@ -180,13 +234,89 @@ public class Issue2410Test extends FeedServer {
 			// 5 Load documents..
 			reader.testFeedItems();
 			reader.testFeeds();
+			assertTrue("5. Item scan should be complete", dao.scanDuplicateItems().isComplete());
+		}
+	}
+
+	@Test
+	public void testDuplicates() {
+		String url = "http://localhost:" + getServerPort() + "/duplicates";
+		IFeed feed = reader.save(new FeedImpl("duplicates", url));
+		reader.save(new FeedImpl("duplicates", url.toUpperCase()));
+		Map<String, List<String>> duplicateUrls = reader.getDuplicateFeedUrls();
+		assertEquals("Duplicate url should be reported once", 1, duplicateUrls.size());
+		assertEquals("Both feeds should be reported", 2, duplicateUrls.get(url).size());
+
+		feed.getNewFeedItems().add(createItem(feed, "1", "content"));
+		feed.getNewFeedItems().add(createItem(feed, "2", "content"));
+		assertEquals(2, reader.saveItems(feed).size());
+		RethinkDBDAO dao = (RethinkDBDAO) reader;
+		assertTrue("Distinct items should not be reported", dao.scanDuplicateItems().isOk());
+
+		IFeedItem item = createItem(feed, "1", "content");
+		Map<String, Object> copy = new HashMap<>();
+		copy.put(FeedItemProperty.FEED_ID.toString(), feed.getGenId());
+		copy.put(FeedItemProperty.TITLE.toString(), item.getTitle());
+		copy.put(FeedItemProperty.CONTENT.toString(), item.getContent());
+		copy.put(FeedItemProperty.LINK.toString(), item.getLink());
+		copy.put(FeedItemProperty.AUTHOR.toString(), item.getAuthor());
+		copy.put(FeedItemProperty.PUBLISHED.toString(), item.getPublishDate().getTime());
+		try {
+			RqlConnection r = RqlConnection.connect(dbServerHost, dbServerPort);
+			r.run(r.db(reader.getDbName()).table(FeedItemProperty.TABLE_NAME).insert(copy));
+			r.close();
+		} catch (RqlDriverException e) {
+			fail(e.getMessage());
+		}
+		DuplicateReport report = dao.scanDuplicateItems();
+		assertTrue(report.isComplete());
+		assertEquals("Copied item should be reported once", 1, report.getDuplicates().size());
+		assertEquals(DuplicateReport.Kind.EQUAL, report.getDuplicates().get(0).getKind());
+	}
+
+	@Test
+	public void testKnownEntries() {
+		IFeed feed = reader.save(new FeedImpl("entries", "http://localhost:" + getServerPort() + "/entries"));
+		feed.getNewFeedItems().add(createItem(feed, "1", "content"));
+		feed.getNewFeedItems().add(createItem(feed, "2", "content"));
+		assertEquals(2, reader.saveItems(feed).size());
+		assertEquals("Item counter should count the saved items", 2, reader.getItemCountFor(feed.getGenId()));
+
+		feed.getNewFeedItems().add(createItem(feed, "1", "content"));
+		feed.getNewFeedItems().add(createItem(feed, "2", "content"));
+		assertTrue("Fetched entries should be skipped", reader.saveItems(feed).isEmpty());
+
+		feed.getNewFeedItems().add(createItem(feed, "1", "edited"));
+		assertTrue("Edited entry should not be inserted", reader.saveItems(feed).isEmpty());
+		assertEquals("Edited entry should be saved", "edited", loadContent(feed, "1"));
+		assertEquals(2, reader.getItemCountFor(feed.getGenId()));
+		assertEquals(2, reader.recountItemsFor(feed.getGenId()));
+
+		((RethinkDBDAO) reader).setIngestWatermark(true);
+		feed.getNewFeedItems().add(createItem(feed, "1", "edited again"));
+		assertTrue(reader.saveItems(feed).isEmpty());
+		assertEquals("Entry below the watermark should be dropped", "edited", loadContent(feed, "1"));
+	}
+
+	private IFeedItem createItem(IFeed feed, String id, String content) {
+		return new FeedItemImpl("", feed.getGenId(), "Entry " + id, content, feed.getUrl() + "/" + id, "author", null,
+				new Date(1402141582000L), new Date(), null);
+	}
+
+	private String loadContent(IFeed feed, String id) {
+		for (IFeedItem item : reader.loadFeeds(Arrays.asList(feed.getGenId()), true).get(0).getFeedItems()) {
+			if (item.getLink().equals(feed.getUrl() + "/" + id)) {
+				return item.getContent();
+			}
 		}
+		return null;
 	}
 
 	@Override
 	@After
 	public void teardown() {
 		super.teardown();
+		reader.shutdown();
 		try {
 			RqlConnection r = RqlConnection.connect(dbServerHost, dbServerPort);
 			r.run(r.db_drop(reader.getDbName()));
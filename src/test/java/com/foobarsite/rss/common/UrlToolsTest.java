@@ -0,0 +1,58 @@
+package com.foobarsite.rss.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class UrlToolsTest {
+
+	@Test
+	public void testCanonicalUrlLowerCasesProtocolAndHost() {
+		assertEquals("http://example.com/Feed", UrlTools.canonicalUrl("HTTP://Example.COM/Feed"));
+	}
+
+	@Test
+	public void testCanonicalUrlDropsDefaultPort() {
+		assertEquals("http://example.com/feed", UrlTools.canonicalUrl("http://example.com:80/feed"));
+		assertEquals("https://example.com/feed", UrlTools.canonicalUrl("https://example.com:443/feed"));
+		assertEquals("http://example.com:8080/feed", UrlTools.canonicalUrl("http://example.com:8080/feed"));
+		assertEquals("https://example.com:80/feed", UrlTools.canonicalUrl("https://example.com:80/feed"));
+	}
+
+	@Test
+	public void testCanonicalUrlDropsTrailingSlashAndFragment() {
+		assertEquals("http://example.com", UrlTools.canonicalUrl("http://example.com/"));
+		assertEquals("http://example.com/feed", UrlTools.canonicalUrl("http://example.com/feed/"));
+		assertEquals("http://example.com/feed", UrlTools.canonicalUrl("http://example.com/feed/#top"));
+		assertEquals("http://example.com/feed", UrlTools.canonicalUrl("  http://example.com/feed/  "));
+	}
+
+	@Test
+	public void testCanonicalUrlKeepsQuery() {
+		assertEquals("http://example.com/feed?format=rss&Page=2", UrlTools.canonicalUrl("http://example.com/feed/?format=rss&Page=2"));
+		assertEquals("http://example.com/feed?next=/", UrlTools.canonicalUrl("http://example.com/feed?next=/"));
+		assertEquals("http://example.com?feed=rss", UrlTools.canonicalUrl("http://example.com/?feed=rss#x"));
+	}
+
+	@Test
+	public void testCanonicalUrlOfSameFeed() {
+		assertEquals(UrlTools.canonicalUrl("http://Example.com:80/blog/feed/"), UrlTools.canonicalUrl("http://example.com/blog/feed"));
+	}
+
+	@Test
+	public void testCanonicalUrlOfInvalidUrlIsTrimmed() {
+		assertNull(UrlTools.canonicalUrl(null));
+		assertEquals("example.com/feed", UrlTools.canonicalUrl(" example.com/feed/ "));
+		assertEquals("tag:blogger.com,1999:blog-1", UrlTools.canonicalUrl("tag:blogger.com,1999:blog-1"));
+		assertEquals("http://exa mple.com/feed", UrlTools.canonicalUrl("http://exa mple.com/feed"));
+	}
+
+	@Test
+	public void testNormalizeLink() {
+		assertEquals("example.com/a/b", UrlTools.normalizeLink("https://example.com/a/b/"));
+		assertEquals("Example.com/A", UrlTools.normalizeLink(" http://Example.com/A "));
+		assertEquals("tag:example.com,2014:1/", UrlTools.normalizeLink("tag:example.com,2014:1/"));
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.foobarsite.rss.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.dkhenry.RethinkDB.errors.RqlDriverException;
+
+public class ConnectionPoolTest {
+	private ConnectionPool<Connection> pool;
+	private final List<Connection> connections = new ArrayList<>();
+
+	private static class Connection {
+		private boolean valid = true;
+		private boolean closed = false;
+	}
+
+	private final ConnectionPool.IConnectionFactory<Connection> factory = new ConnectionPool.IConnectionFactory<Connection>() {
+		@Override
+		public Connection create() throws RqlDriverException {
+			Connection connection = new Connection();
+			connections.add(connection);
+			return connection;
+		}
+
+		@Override
+		public boolean validate(Connection connection) {
+			return connection.valid;
+		}
+
+		@Override
+		public void close(Connection connection) {
+			connection.closed = true;
+		}
+	};
+
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBorrowReusesReleasedConnection() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 2, 60000, 100, 60000);
+		Connection first = pool.borrow();
+		assertEquals(1, pool.getInUse());
+		pool.release(first);
+		assertEquals(0, pool.getInUse());
+		assertEquals(1, pool.getIdle());
+		assertSame(first, pool.borrow());
+		assertEquals(1, pool.getCreated());
+	}
+
+	@Test
+	public void testWarmUp() throws Exception {
+		pool = new ConnectionPool<>(factory, 2, 4, 60000, 100, 60000);
+		pool.warmUp();
+		assertEquals(2, pool.getIdle());
+		assertEquals(2, pool.getCreated());
+		pool.borrow();
+		pool.borrow();
+		assertEquals(2, pool.getCreated());
+	}
+
+	@Test
+	public void testBorrowTimesOutWhenExhausted() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 1, 60000, 50, 60000);
+		Connection connection = pool.borrow();
+		try {
+			pool.borrow();
+			fail("Borrowed more than the pool size");
+		} catch (RqlDriverException e) {
+			assertTrue(e.getMessage().contains("Timed out"));
+		}
+		pool.release(connection);
+		assertSame(connection, pool.borrow());
+	}
+
+	@Test
+	public void testStaleBrokenConnectionIsDiscarded() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 2, 60000, 100, 0);
+		Connection broken = pool.borrow();
+		pool.release(broken);
+		broken.valid = false;
+		Thread.sleep(5);
+		Connection connection = pool.borrow();
+		assertNotSame(broken, connection);
+		assertTrue(broken.closed);
+		assertEquals(1, pool.getDestroyed());
+	}
+
+	@Test
+	public void testRecentConnectionIsNotValidated() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 2, 60000, 100, 60000);
+		Connection connection = pool.borrow();
+		pool.release(connection);
+		connection.valid = false;
+		assertSame(connection, pool.borrow());
+	}
+
+	@Test
+	public void testInvalidateFreesPermit() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 1, 60000, 50, 60000);
+		Connection connection = pool.borrow();
+		pool.invalidate(connection);
+		assertTrue(connection.closed);
+		assertEquals(0, pool.getIdle());
+		assertNotSame(connection, pool.borrow());
+	}
+
+	@Test
+	public void testEvictIdleKeepsMinSize() throws Exception {
+		pool = new ConnectionPool<>(factory, 1, 3, 0, 100, 60000);
+		Connection a = pool.borrow();
+		Connection b = pool.borrow();
+		Connection c = pool.borrow();
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		Thread.sleep(5);
+		pool.evictIdle();
+		assertEquals(1, pool.getIdle());
+		assertEquals(2, pool.getDestroyed());
+		// most recently released connections are kept
+		assertFalse(c.closed);
+		assertTrue(a.closed);
+		assertTrue(b.closed);
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		pool = new ConnectionPool<>(factory, 0, 2, 60000, 100, 60000);
+		Connection idle = pool.borrow();
+		Connection busy = pool.borrow();
+		pool.release(idle);
+		pool.close();
+		assertTrue(idle.closed);
+		assertFalse(busy.closed);
+		pool.release(busy);
+		assertTrue(busy.closed);
+		try {
+			pool.borrow();
+			fail("Borrowed from a closed pool");
+		} catch (RqlDriverException e) {
+			assertTrue(e.getMessage().contains("closed"));
+		}
+	}
+
+}
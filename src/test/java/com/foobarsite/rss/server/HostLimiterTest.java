@@ -0,0 +1,94 @@
+package com.foobarsite.rss.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class HostLimiterTest {
+
+	@Test
+	public void testPermitsPerHost() throws Exception {
+		HostLimiter limiter = new HostLimiter(2, 0, 20);
+		assertTrue(limiter.acquire("example.com"));
+		assertTrue(limiter.acquire("example.com"));
+		assertFalse(limiter.acquire("example.com"));
+		assertTrue(limiter.acquire("other.com"));
+		assertEquals(3, limiter.getAcquired());
+		assertEquals(1, limiter.getWaited());
+		assertEquals(1, limiter.getRejected());
+
+		limiter.release("example.com");
+		assertTrue(limiter.acquire("example.com"));
+	}
+
+	@Test
+	public void testHostIsCaseInsensitive() throws Exception {
+		HostLimiter limiter = new HostLimiter(1, 0, 20);
+		assertTrue(limiter.acquire("Example.COM"));
+		assertFalse(limiter.acquire("example.com"));
+		limiter.release("EXAMPLE.com");
+		assertTrue(limiter.acquire("example.com"));
+	}
+
+	@Test
+	public void testWaiterGetsReleasedPermit() throws Exception {
+		final HostLimiter limiter = new HostLimiter(1, 0, 5000);
+		assertTrue(limiter.acquire("example.com"));
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final AtomicBoolean result = new AtomicBoolean();
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.set(limiter.acquire("example.com"));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				acquired.countDown();
+			}
+		});
+		waiter.start();
+		assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		limiter.release("example.com");
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertTrue(result.get());
+		assertEquals(1, limiter.getWaited());
+		assertEquals(0, limiter.getRejected());
+	}
+
+	@Test
+	public void testMinDelayBetweenStarts() throws Exception {
+		HostLimiter limiter = new HostLimiter(2, 100, 1000);
+		long start = System.currentTimeMillis();
+		assertTrue(limiter.acquire("example.com"));
+		assertTrue(limiter.acquire("example.com"));
+		assertTrue(System.currentTimeMillis() - start >= 90);
+		long other = System.currentTimeMillis();
+		assertTrue(limiter.acquire("other.com"));
+		assertTrue(System.currentTimeMillis() - other < 90);
+	}
+
+	@Test
+	public void testInvalidLimits() {
+		try {
+			new HostLimiter(0, 0, 0);
+			fail("Zero requests per host");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new HostLimiter(1, -1, 0);
+			fail("Negative delay");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
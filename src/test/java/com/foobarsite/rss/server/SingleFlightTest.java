@@ -0,0 +1,140 @@
+package com.foobarsite.rss.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class SingleFlightTest {
+	private SingleFlight<String, String> singleFlight;
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		if (singleFlight != null) {
+			singleFlight.close();
+		}
+	}
+
+	private Callable<ListenableFuture<String>> task(final ListenableFuture<String> result) {
+		return new Callable<ListenableFuture<String>>() {
+			@Override
+			public ListenableFuture<String> call() {
+				calls.incrementAndGet();
+				return result;
+			}
+		};
+	}
+
+	@Test
+	public void testConcurrentCallersShareOneTask() throws Exception {
+		singleFlight = new SingleFlight<>(0);
+		SettableFuture<String> running = SettableFuture.create();
+		ListenableFuture<String> first = singleFlight.run("a", task(running));
+		ListenableFuture<String> second = singleFlight.run("a", task(Futures.immediateFuture("other")));
+		assertEquals(1, calls.get());
+		assertEquals(1, singleFlight.getInFlight());
+		assertEquals(1, singleFlight.getJoined());
+
+		running.set("result");
+		assertEquals("result", first.get());
+		assertEquals("result", second.get());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void testKeysRunIndependently() throws Exception {
+		singleFlight = new SingleFlight<>(0);
+		SettableFuture<String> a = SettableFuture.create();
+		singleFlight.run("a", task(a));
+		assertEquals("b", singleFlight.run("b", task(Futures.immediateFuture("b"))).get());
+		assertEquals(2, singleFlight.getStarted());
+		assertEquals(0, singleFlight.getJoined());
+	}
+
+	@Test
+	public void testFinishedTaskIsNotShared() throws Exception {
+		singleFlight = new SingleFlight<>(0);
+		assertEquals("first", singleFlight.run("a", task(Futures.immediateFuture("first"))).get());
+		assertEquals("second", singleFlight.run("a", task(Futures.immediateFuture("second"))).get());
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testFailureReachesAllCallers() throws Exception {
+		singleFlight = new SingleFlight<>(1000);
+		SettableFuture<String> running = SettableFuture.create();
+		ListenableFuture<String> first = singleFlight.run("a", task(running));
+		ListenableFuture<String> second = singleFlight.run("a", task(running));
+		IllegalStateException failure = new IllegalStateException("failed");
+		running.setException(failure);
+		for (ListenableFuture<String> result : Arrays.asList(first, second)) {
+			try {
+				result.get();
+				fail("Failure should be shared");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void testThrowingTaskReleasesKey() throws Exception {
+		singleFlight = new SingleFlight<>(0);
+		ListenableFuture<String> result = singleFlight.run("a", new Callable<ListenableFuture<String>>() {
+			@Override
+			public ListenableFuture<String> call() throws Exception {
+				throw new Exception("not started");
+			}
+		});
+		try {
+			result.get();
+			fail("Task exception should fail the result");
+		} catch (ExecutionException e) {
+			assertEquals("not started", e.getCause().getMessage());
+		}
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void testJoinerTimesOutWhileLeaderWaits() throws Exception {
+		singleFlight = new SingleFlight<>(50);
+		SettableFuture<String> running = SettableFuture.create();
+		ListenableFuture<String> leader = singleFlight.run("a", task(running));
+		ListenableFuture<String> joiner = singleFlight.run("a", task(running));
+		assertNotSame(leader, joiner);
+		try {
+			joiner.get(5, TimeUnit.SECONDS);
+			fail("Joiner should time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		// counted by the timer thread right after it failed the joiner
+		for (int i = 0; i < 100 && singleFlight.getTimedOut() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, singleFlight.getTimedOut());
+		assertEquals(1, singleFlight.getInFlight());
+
+		running.set("late");
+		assertEquals("late", leader.get());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+}
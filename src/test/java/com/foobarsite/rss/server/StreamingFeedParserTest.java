@@ -0,0 +1,265 @@
+package com.foobarsite.rss.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import com.foobarsite.rss.common.DateTools;
+import com.foobarsite.rss.common.StringTools;
+import com.foobarsite.rss.feed.IFeed;
+import com.foobarsite.rss.feed.IFeedItem;
+import com.foobarsite.rss.feed.impl.FeedImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+public class StreamingFeedParserTest {
+	private static final String RSS_HEADER = "<?xml version=\"1.0\"?><rss version=\"2.0\""
+			+ " xmlns:content=\"http://purl.org/rss/1.0/modules/content/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><channel>";
+	private static final String RSS_FOOTER = "</channel></rss>";
+
+	private final StreamingFeedParser parser = new StreamingFeedParser(100, 2);
+
+	private IFeed parse(StreamingFeedParser parser, String xml, StreamingFeedParser.Result expected) throws XMLStreamException {
+		IFeed feed = new FeedImpl("feed-id", "test", "http://example.com/feed");
+		return parse(parser, feed, xml, expected);
+	}
+
+	private IFeed parse(StreamingFeedParser parser, IFeed feed, String xml, StreamingFeedParser.Result expected) throws XMLStreamException {
+		assertEquals(expected, parser.parse(new StringReader(xml), feed));
+		return feed;
+	}
+
+	private static Map<String, IFeedItem> byLink(IFeed feed) {
+		Map<String, IFeedItem> items = new HashMap<>();
+		for (IFeedItem item : feed.getNewFeedItems()) {
+			items.put(item.getLink(), item);
+		}
+		return items;
+	}
+
+	private static String rssItem(String link, String pubDate) {
+		return "<item><title>" + link + "</title><link>http://example.com/" + link + "</link><pubDate>" + pubDate + "</pubDate></item>";
+	}
+
+	@Test
+	public void testRssChannelAndItem() throws Exception {
+		IFeed feed = parse(parser, RSS_HEADER
+				+ "<title> Example </title><description>About</description><managingEditor>editor@example.com</managingEditor>"
+				+ "<copyright>CC</copyright><language>en</language><category>a</category><category>b</category>"
+				+ "<image><url>http://example.com/logo.png</url><title>logo</title></image>"
+				+ "<item><title> First </title><link>http://example.com/1</link><description>Text &amp; more</description>"
+				+ "<author>a@example.com</author><guid isPermaLink=\"false\">urn:1</guid><pubDate>Sat, 07 Jun 2014 11:46:22 +0000</pubDate></item>"
+				+ RSS_FOOTER, StreamingFeedParser.Result.COMPLETE);
+		assertEquals("Example", feed.getName());
+		assertEquals("About", feed.getDescription());
+		assertEquals("editor@example.com", feed.getAuthor());
+		assertEquals("CC", feed.getCopyright());
+		assertEquals("en", feed.getLanguage());
+		assertEquals("a;b;", feed.getCategories());
+		assertEquals("http://example.com/logo.png", feed.getImageUrl());
+
+		assertEquals(1, feed.getNewFeedItems().size());
+		IFeedItem item = feed.getNewFeedItems().iterator().next();
+		assertEquals("First", item.getTitle());
+		assertEquals("http://example.com/1", item.getLink());
+		assertEquals("Text & more", item.getContent());
+		assertEquals("a@example.com", item.getAuthor());
+		assertEquals("urn:1", item.getUri());
+		assertEquals(1402141582000L, item.getPublishDate().getTime());
+		assertEquals("feed-id", item.getFeedId());
+	}
+
+	@Test
+	public void testRssFallbacks() throws Exception {
+		IFeed feed = parse(parser, RSS_HEADER
+				+ "<item><link>http://example.com/encoded</link><description>summary</description>"
+				+ "<content:encoded><![CDATA[<p>full</p>]]></content:encoded></item>"
+				+ "<item><link>http://example.com/dc</link><description> </description><dc:description>dc text</dc:description>"
+				+ "<dc:creator>Creator</dc:creator><dc:date>2014-06-07T11:46:22Z</dc:date></item>"
+				+ RSS_FOOTER, StreamingFeedParser.Result.COMPLETE);
+		Map<String, IFeedItem> items = byLink(feed);
+
+		IFeedItem encoded = items.get("http://example.com/encoded");
+		assertEquals("<p>full</p>", encoded.getContent());
+		assertEquals("http://example.com/encoded", encoded.getUri());
+		assertEquals(DateTools.DEFAULT_DATE_MIN, encoded.getPublishDate());
+
+		IFeedItem dc = items.get("http://example.com/dc");
+		assertEquals("dc text", dc.getContent());
+		assertEquals("Creator", dc.getAuthor());
+		assertEquals(1402141582000L, dc.getPublishDate().getTime());
+	}
+
+	@Test
+	public void testRssAuthorAndDateBeforeDublinCore() throws Exception {
+		IFeed feed = parse(parser, RSS_HEADER
+				+ "<item><link>http://example.com/1</link><dc:creator>Creator</dc:creator><author>Author</author>"
+				+ "<dc:date>2014-01-01T00:00:00Z</dc:date><pubDate>Sat, 07 Jun 2014 11:46:22 +0000</pubDate></item>"
+				+ "<item><link>http://example.com/2</link><author>Author</author><dc:creator>Creator</dc:creator>"
+				+ "<pubDate>Sat, 07 Jun 2014 11:46:22 +0000</pubDate><dc:date>2014-01-01T00:00:00Z</dc:date></item>"
+				+ "<item><link>http://example.com/3</link><author> </author><dc:creator>Creator</dc:creator></item>"
+				+ RSS_FOOTER, StreamingFeedParser.Result.COMPLETE);
+		Map<String, IFeedItem> items = byLink(feed);
+		for (String link : new String[] { "http://example.com/1", "http://example.com/2" }) {
+			assertEquals("Author", items.get(link).getAuthor());
+			assertEquals(1402141582000L, items.get(link).getPublishDate().getTime());
+		}
+		assertEquals("Creator", items.get("http://example.com/3").getAuthor());
+	}
+
+	@Test
+	public void testAtomFeedAndEntry() throws Exception {
+		IFeed feed = parse(parser, "<?xml version=\"1.0\"?><feed xmlns=\"http://www.w3.org/2005/Atom\" xml:lang=\"fi\">"
+				+ "<title>Atom example</title><subtitle>Sub</subtitle><rights>CC</rights><logo>http://example.com/logo.png</logo>"
+				+ "<author><name>Feed Author</name></author><category term=\"x\"/>"
+				+ "<entry><title>Entry</title><link rel=\"edit\" href=\"http://example.com/edit/1\"/>"
+				+ "<link rel=\"alternate\" href=\" http://example.com/1 \"/><id>tag:example.com,2014:1</id>"
+				+ "<summary>short</summary><content type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\"><p>long &amp; full</p></div></content>"
+				+ "<author><name>First</name></author><author><name>Second</name></author>"
+				+ "<published>2014-06-07T11:46:22Z</published><updated>2014-06-08T00:00:00Z</updated></entry>"
+				+ "<entry><title>Summary only</title><link href=\"http://example.com/2\"/><id>tag:example.com,2014:2</id>"
+				+ "<summary>only summary</summary></entry>"
+				+ "</feed>", StreamingFeedParser.Result.COMPLETE);
+		assertEquals("Atom example", feed.getName());
+		assertEquals("Sub", feed.getDescription());
+		assertEquals("CC", feed.getCopyright());
+		assertEquals("http://example.com/logo.png", feed.getImageUrl());
+		assertEquals("Feed Author", feed.getAuthor());
+		assertEquals("fi", feed.getLanguage());
+		assertEquals("x;", feed.getCategories());
+
+		Map<String, IFeedItem> items = byLink(feed);
+		IFeedItem entry = items.get("http://example.com/1");
+		assertNotNull(entry);
+		assertEquals("Entry", entry.getTitle());
+		assertEquals("tag:example.com,2014:1", entry.getUri());
+		assertEquals("<div><p>long &amp; full</p></div>", entry.getContent());
+		assertEquals("First", entry.getAuthor());
+		assertEquals(1402141582000L, entry.getPublishDate().getTime());
+		assertEquals(1402185600000L, entry.getUpdatedDate().getTime());
+		assertEquals("only summary", items.get("http://example.com/2").getContent());
+	}
+
+	@Test
+	public void testStopsAtMaxEntries() throws Exception {
+		StringBuilder xml = new StringBuilder(RSS_HEADER);
+		for (int i = 0; i < 5; i++) {
+			xml.append(rssItem("item" + i, "Sat, 07 Jun 2014 11:46:22 +0000"));
+		}
+		xml.append(RSS_FOOTER);
+		IFeed feed = parse(new StreamingFeedParser(3, 2), xml.toString(), StreamingFeedParser.Result.STOPPED);
+		assertEquals(3, feed.getNewFeedItems().size());
+		assertTrue(byLink(feed).containsKey("http://example.com/item2"));
+		assertFalse(byLink(feed).containsKey("http://example.com/item3"));
+	}
+
+	@Test
+	public void testStopsAtWatermark() throws Exception {
+		IFeed feed = new FeedImpl("feed-id", "test", "http://example.com/feed");
+		feed.setWatermark(new Date(1402000000000L)); // Thu, 05 Jun 2014 20:26:40 GMT
+		parse(parser, feed, RSS_HEADER
+				+ rssItem("new", "Sat, 07 Jun 2014 11:46:22 +0000")
+				+ rssItem("old1", "Wed, 04 Jun 2014 10:00:00 +0000")
+				+ rssItem("undated", "")
+				+ rssItem("old2", "Tue, 03 Jun 2014 10:00:00 +0000")
+				+ rssItem("old3", "Mon, 02 Jun 2014 10:00:00 +0000")
+				+ rssItem("old4", "Sun, 01 Jun 2014 10:00:00 +0000")
+				+ RSS_FOOTER, StreamingFeedParser.Result.STOPPED);
+		// an entry without a date doesn't count as known, the second known entry in a row stops
+		assertEquals(new HashSet<>(Arrays.asList("http://example.com/new", "http://example.com/old1",
+				"http://example.com/undated", "http://example.com/old2", "http://example.com/old3")), byLink(feed).keySet());
+	}
+
+	@Test
+	public void testUnknownEntriesResetKnownCount() throws Exception {
+		IFeed feed = new FeedImpl("feed-id", "test", "http://example.com/feed");
+		feed.setWatermark(new Date(1402000000000L));
+		parse(parser, feed, RSS_HEADER
+				+ rssItem("old1", "Wed, 04 Jun 2014 10:00:00 +0000")
+				+ rssItem("new", "Sat, 07 Jun 2014 11:46:22 +0000")
+				+ rssItem("old2", "Tue, 03 Jun 2014 10:00:00 +0000")
+				+ RSS_FOOTER, StreamingFeedParser.Result.COMPLETE);
+		assertEquals(3, feed.getNewFeedItems().size());
+	}
+
+	@Test
+	public void testUnsupportedFormatLeavesFeedUnchanged() throws Exception {
+		IFeed feed = parse(parser, "<?xml version=\"1.0\"?><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+				+ " xmlns=\"http://purl.org/rss/1.0/\"><channel><title>RSS 1.0</title></channel><item><title>x</title></item></rdf:RDF>",
+				StreamingFeedParser.Result.UNSUPPORTED);
+		assertEquals("test", feed.getName());
+		assertTrue(feed.getNewFeedItems().isEmpty());
+	}
+
+	@Test
+	public void testMalformedDocumentLeavesFeedUnchanged() {
+		IFeed feed = new FeedImpl("feed-id", "test", "http://example.com/feed");
+		try {
+			parser.parse(new StringReader(RSS_HEADER + "<title>Broken</title>" + rssItem("1", "") + "<item><title>x</item>"), feed);
+			fail("Malformed document should fail");
+		} catch (XMLStreamException e) {
+			// expected
+		}
+		assertEquals("test", feed.getName());
+		assertTrue(feed.getNewFeedItems().isEmpty());
+		assertNull(feed.getDescription());
+	}
+
+	@Test
+	public void testExampleDataMatchesRome() throws Exception {
+		int files = 0;
+		for (File folder : new File("example_data").listFiles()) {
+			for (File file : folder.listFiles()) {
+				IFeed feed = new FeedImpl("feed-id", file.getName(), "http://localhost/" + file.getName());
+				StreamingFeedParser.Result result;
+				try (Reader reader = new XmlReader(new FileInputStream(file))) {
+					result = new StreamingFeedParser(1000, 3).parse(reader, feed);
+				}
+				assertEquals(file.getPath(), StreamingFeedParser.Result.COMPLETE, result);
+
+				List<SyndEntry> entries;
+				try (XmlReader reader = new XmlReader(new FileInputStream(file))) {
+					entries = new SyndFeedInput().build(reader).getEntries();
+				}
+				Set<String> romeLinks = new HashSet<>();
+				Set<String> romeTitles = new HashSet<>();
+				for (SyndEntry entry : entries) {
+					romeLinks.add(StringTools.trim(entry.getLink()));
+					romeTitles.add(StringTools.trim(entry.getTitle()));
+				}
+				Set<String> titles = new HashSet<>();
+				for (IFeedItem item : feed.getNewFeedItems()) {
+					titles.add(item.getTitle());
+					assertTrue(file.getPath() + " " + item.getLink(), item.getPublishDate().after(DateTools.DEFAULT_DATE_MIN));
+					assertFalse(file.getPath() + " " + item.getLink(), StringTools.isBlankOrNull(item.getContent()));
+				}
+				assertFalse(file.getPath(), romeLinks.isEmpty());
+				assertEquals(file.getPath(), romeLinks, byLink(feed).keySet());
+				assertEquals(file.getPath(), romeTitles, titles);
+				files++;
+			}
+		}
+		assertTrue(files > 0);
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.foobarsite.rss.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindBufferTest {
+	private final List<List<Map<String,Object>>> writes = new ArrayList<>();
+	private boolean failWrites = false;
+	private WriteBehindBuffer buffer;
+
+	@Before
+	public void setUp() {
+		buffer = new WriteBehindBuffer(new WriteBehindBuffer.IWriter() {
+			@Override
+			public boolean write(List<Map<String, Object>> documents) {
+				if (failWrites) {
+					return false;
+				}
+				writes.add(documents);
+				return true;
+			}
+		}, "id", 3, 60000);
+	}
+
+	@After
+	public void tearDown() {
+		failWrites = false;
+		buffer.close();
+	}
+
+	private static Map<String,Object> values(String key, Object value) {
+		Map<String,Object> values = new HashMap<>();
+		values.put(key, value);
+		return values;
+	}
+
+	@Test
+	public void testUpdatesOfSameIdAreMerged() {
+		assertTrue(buffer.add("a", values("title", "first")));
+		assertTrue(buffer.add("a", values("title", "second")));
+		assertTrue(buffer.add("a", values("author", "someone")));
+		assertEquals(1, buffer.getQueueDepth());
+		assertEquals(2, buffer.getWritesSaved());
+
+		assertEquals(1, buffer.flush());
+		assertEquals(1, writes.size());
+		Map<String,Object> document = writes.get(0).get(0);
+		assertEquals("a", document.get("id"));
+		assertEquals("second", document.get("title"));
+		assertEquals("someone", document.get("author"));
+		assertEquals(0, buffer.getQueueDepth());
+		assertEquals(1, buffer.getWritten());
+	}
+
+	@Test
+	public void testFullBufferIsFlushedByCaller() {
+		buffer.add("a", values("title", "a"));
+		buffer.add("b", values("title", "b"));
+		assertTrue(writes.isEmpty());
+		buffer.add("c", values("title", "c"));
+		assertEquals(1, writes.size());
+		assertEquals(3, writes.get(0).size());
+		assertEquals("a", writes.get(0).get(0).get("id"));
+		assertEquals("c", writes.get(0).get(2).get("id"));
+	}
+
+	@Test
+	public void testFailedFlushIsRequeuedUnderNewerUpdates() {
+		buffer.add("a", values("title", "old"));
+		buffer.add("b", values("title", "b"));
+		failWrites = true;
+		assertEquals(0, buffer.flush());
+		assertEquals(2, buffer.getQueueDepth());
+
+		buffer.add("a", values("title", "new"));
+		failWrites = false;
+		assertEquals(2, buffer.flush());
+		List<Map<String,Object>> documents = writes.get(0);
+		assertEquals("a", documents.get(0).get("id"));
+		assertEquals("new", documents.get(0).get("title"));
+		assertEquals("b", documents.get(1).get("id"));
+	}
+
+	@Test
+	public void testRemove() {
+		buffer.add("a", values("title", "a"));
+		assertTrue(buffer.remove("a"));
+		assertFalse(buffer.remove("a"));
+		assertEquals(0, buffer.flush());
+		assertTrue(writes.isEmpty());
+	}
+
+	@Test
+	public void testCloseWritesPendingAndRejectsLaterUpdates() {
+		buffer.add("a", values("title", "a"));
+		buffer.close();
+		assertEquals(1, writes.size());
+		assertFalse(buffer.add("b", values("title", "b")));
+		assertEquals(0, buffer.getQueueDepth());
+		assertEquals(1, buffer.getAdded());
+	}
+
+	@Test
+	public void testConcurrentAddsAreWrittenOrRejected() throws Exception {
+		final int count = 2000;
+		Thread adder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					if (!buffer.add("id" + i, values("n", i))) {
+						return;
+					}
+				}
+			}
+		});
+		adder.start();
+		Thread.sleep(1);
+		buffer.close();
+		adder.join();
+		int written = 0;
+		for (List<Map<String,Object>> documents : writes) {
+			written += documents.size();
+		}
+		assertEquals(buffer.getAdded(), written);
+		assertEquals(0, buffer.getQueueDepth());
+	}
+
+}